@@ -1,7 +1,9 @@
 package com.firefly.ragdemo.DTO;
 
+import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotEmpty;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Pattern;
 import lombok.Data;
 
 import java.util.List;
@@ -13,15 +15,22 @@ public class ChatRequest {
     private String model;
 
     @NotEmpty(message = "消息列表不能为空")
-    private List<ChatMessage> messages;
+    private List<@Valid ChatMessage> messages;
 
     private Boolean stream = false;
 
     private String langid;
 
+    /**
+     * 服务端会话ID（POST /conversations 创建）。带该ID时只使用并记录 messages 中最后一条（须为用户消息），
+     * 历史由服务端读取；为空时按 messages 中的完整历史进行无状态对话
+     */
+    private String conversationId;
+
     @Data
     public static class ChatMessage {
         @NotNull(message = "角色不能为空")
+        @Pattern(regexp = "^(user|assistant|system)$", message = "角色只能为 user、assistant 或 system")
         private String role;
 
         @NotNull(message = "内容不能为空")
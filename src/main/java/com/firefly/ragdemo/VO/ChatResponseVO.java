@@ -9,6 +9,7 @@ public class ChatResponseVO {
 
     private String response;
     private UsageVO usage;
+    private String conversationId;
 
     @Data
     @Builder
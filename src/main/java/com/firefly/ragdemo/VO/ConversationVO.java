@@ -0,0 +1,14 @@
+package com.firefly.ragdemo.VO;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+
+@Data
+@Builder
+public class ConversationVO {
+
+    private String id;
+    private LocalDateTime createdAt;
+}
@@ -0,0 +1,71 @@
+package com.firefly.ragdemo.config;
+
+import org.springframework.ai.autoconfigure.retry.SpringAiRetryProperties;
+import org.springframework.ai.retry.NonTransientAiException;
+import org.springframework.ai.retry.TransientAiException;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.CollectionUtils;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+import org.springframework.web.client.ResponseErrorHandler;
+import org.springframework.web.client.RestClientResponseException;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 替换 Spring AI 默认的 ResponseErrorHandler：按 spring.ai.retry.* 区分暂时性/非暂时性错误的规则不变，
+ * 但把带状态码的 HttpClientErrorException/HttpServerErrorException 作为 cause 保留，
+ * 调用方可按异常类型判断限流（429），不必解析消息文本
+ */
+@Configuration
+public class AiRetryConfig {
+
+    @Bean
+    public ResponseErrorHandler responseErrorHandler(SpringAiRetryProperties properties) {
+        return new ResponseErrorHandler() {
+            @Override
+            public boolean hasError(ClientHttpResponse response) throws IOException {
+                return response.getStatusCode().isError();
+            }
+
+            @Override
+            public void handleError(ClientHttpResponse response) throws IOException {
+                HttpStatusCode status = response.getStatusCode();
+                byte[] body = StreamUtils.copyToByteArray(response.getBody());
+                String message = String.format("%s - %s", status.value(), new String(body, StandardCharsets.UTF_8));
+                RestClientResponseException cause = toHttpException(response, status, body);
+
+                if (properties.getOnHttpCodes().contains(status.value())) {
+                    throw new TransientAiException(message, cause);
+                }
+                if (!properties.isOnClientErrors() && status.is4xxClientError()) {
+                    throw new NonTransientAiException(message, cause);
+                }
+                if (!CollectionUtils.isEmpty(properties.getExcludeOnHttpCodes())
+                        && properties.getExcludeOnHttpCodes().contains(status.value())) {
+                    throw new NonTransientAiException(message, cause);
+                }
+                throw new TransientAiException(message, cause);
+            }
+        };
+    }
+
+    private static RestClientResponseException toHttpException(ClientHttpResponse response, HttpStatusCode status,
+                                                               byte[] body) throws IOException {
+        String statusText = response.getStatusText();
+        if (status.is4xxClientError()) {
+            // 429 时为 HttpClientErrorException.TooManyRequests
+            return HttpClientErrorException.create(status, statusText, response.getHeaders(), body, StandardCharsets.UTF_8);
+        }
+        if (status.is5xxServerError()) {
+            return HttpServerErrorException.create(status, statusText, response.getHeaders(), body, StandardCharsets.UTF_8);
+        }
+        return new RestClientResponseException(status.value() + " " + statusText, status, statusText,
+                response.getHeaders(), body, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,39 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.chat")
+public class ChatConfig {
+
+    /**
+     * 上游超过该时间没有新内容时结束流
+     */
+    private Duration streamIdleTimeout = Duration.ofSeconds(60);
+
+    /**
+     * 增量合并为帧：帧内容达到该字符数或帧中首个增量到达后经过 frame-window 即发送
+     */
+    private int frameMaxChars = 1024;
+    private Duration frameWindow = Duration.ofMillis(20);
+
+    private Conversation conversation = new Conversation();
+
+    @Data
+    public static class Conversation {
+        // 拼入提示词的最近消息条数，也是每个会话在内存中保留的消息条数
+        private int historyWindow = 20;
+        // 内存中保留历史窗口的会话数，超出后淘汰，再次使用时从数据库加载；窗口在 cache-ttl 后重新加载
+        private long cacheSize = 10_000;
+        private Duration cacheTtl = Duration.ofMinutes(30);
+        // 写后持久化：消息先进入队列，由后台线程按批写库
+        private int writeQueueCapacity = 10_000;
+        private int writeBatchSize = 200;
+        private long flushIntervalMs = 200;
+    }
+}
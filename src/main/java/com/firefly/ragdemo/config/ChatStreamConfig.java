@@ -0,0 +1,48 @@
+package com.firefly.ragdemo.config;
+
+import com.firefly.ragdemo.util.VirtualThreads;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 流式对话的生产者线程：检索与订阅LLM流在这里执行，流开始后的内容由上游的非阻塞客户端推送，不再占用该线程。
+ * 开启 spring.threads.virtual.enabled 且运行在Java 21+时每个流使用一个虚拟线程（Tomcat请求线程同样由Spring Boot切换为虚拟线程），
+ * 否则使用平台线程池。
+ */
+@Configuration
+@Slf4j
+public class ChatStreamConfig {
+
+    @Bean(destroyMethod = "shutdownNow")
+    public ExecutorService chatStreamExecutor(@Value("${spring.threads.virtual.enabled:false}") boolean virtual) {
+        ExecutorService delegate = virtual ? VirtualThreads.newPerTaskExecutor() : null;
+        if (delegate != null) {
+            log.info("流式对话使用虚拟线程");
+        } else {
+            if (virtual) {
+                log.warn("当前JDK不支持虚拟线程，流式对话使用平台线程");
+            }
+            AtomicInteger seq = new AtomicInteger();
+            delegate = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "chat-stream-" + seq.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return new DelegatingSecurityContextExecutorService(delegate);
+    }
+
+    @Bean
+    public Scheduler chatStreamScheduler(ExecutorService chatStreamExecutor) {
+        return Schedulers.fromExecutorService(chatStreamExecutor, "chat-stream");
+    }
+}
@@ -10,6 +10,8 @@ public class JwtConfig {
     private String secret = "mySecretKey";
     private int accessTokenExpiration = 86400; // 24 hours in seconds
     private int refreshTokenExpiration = 604800; // 7 days in seconds
+    private int principalCacheTtl = 60; // 认证用户信息的缓存时间（秒），0为不缓存
+    private int principalCacheMaxSize = 10000;
 
     public String getSecret() {
         return secret;
@@ -34,4 +36,20 @@ public class JwtConfig {
     public void setRefreshTokenExpiration(int refreshTokenExpiration) {
         this.refreshTokenExpiration = refreshTokenExpiration;
     }
+
+    public int getPrincipalCacheTtl() {
+        return principalCacheTtl;
+    }
+
+    public void setPrincipalCacheTtl(int principalCacheTtl) {
+        this.principalCacheTtl = principalCacheTtl;
+    }
+
+    public int getPrincipalCacheMaxSize() {
+        return principalCacheMaxSize;
+    }
+
+    public void setPrincipalCacheMaxSize(int principalCacheMaxSize) {
+        this.principalCacheMaxSize = principalCacheMaxSize;
+    }
 }
@@ -0,0 +1,16 @@
+package com.firefly.ragdemo.config;
+
+import com.firefly.ragdemo.mapper.typehandler.FloatArrayTypeHandler;
+import org.mybatis.spring.boot.autoconfigure.ConfigurationCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class MybatisConfig {
+
+    @Bean
+    public ConfigurationCustomizer floatArrayTypeHandlerCustomizer(RagConfig ragConfig) {
+        return configuration -> configuration.getTypeHandlerRegistry()
+                .register(float[].class, new FloatArrayTypeHandler(ragConfig.getStorage().isFloat16()));
+    }
+}
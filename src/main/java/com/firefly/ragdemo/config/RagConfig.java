@@ -0,0 +1,205 @@
+package com.firefly.ragdemo.config;
+
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+@Data
+@Component
+@ConfigurationProperties(prefix = "app.rag")
+public class RagConfig {
+
+    /**
+     * 向量检索后端，默认读取全部向量精确扫描
+     */
+    private SearchBackend searchBackend = SearchBackend.SQL;
+
+    /**
+     * sql后端（及其它后端失败时）在应用侧精确扫描的最大分块数，超出部分不参与排序；
+     * 开启 pgvector 双写且该用户的 embedding_vec 已回填完时改为在数据库中排序，不受此限制
+     */
+    private int exactScanLimit = 20_000;
+
+    private Hnsw hnsw = new Hnsw();
+
+    private Pgvector pgvector = new Pgvector();
+
+    private Quantization quantization = new Quantization();
+
+    private Hybrid hybrid = new Hybrid();
+
+    private QueryCache queryCache = new QueryCache();
+
+    private ChunkCache chunkCache = new ChunkCache();
+
+    private Embedding embedding = new Embedding();
+
+    private Storage storage = new Storage();
+
+    private ResultCache resultCache = new ResultCache();
+
+    private Streaming streaming = new Streaming();
+
+    private IndexQueue indexQueue = new IndexQueue();
+
+    private IndexSync indexSync = new IndexSync();
+
+    public enum SearchBackend {
+        SQL, HNSW, PGVECTOR, MMAP, QUANTIZED
+    }
+
+    public boolean isPgvectorWriteEnabled() {
+        return searchBackend == SearchBackend.PGVECTOR || pgvector.isDualWrite();
+    }
+
+    @Data
+    public static class Hnsw {
+        // 每个节点在上层的最大邻居数，第0层为2*M
+        private int m = 16;
+        private int efConstruction = 200;
+        private int efSearch = 100;
+        // 墓碑节点占比超过该值时丢弃索引，下次查询时重建
+        private double rebuildDeletedRatio = 0.3;
+        // 内存中所有用户索引的向量总数上限（1536维约6KB/向量），超出时按最近最少使用淘汰
+        private long cacheMaxVectors = 200_000;
+        // 超过该时间未被查询的用户索引被淘汰，下次查询时重建
+        private Duration cacheExpireAfterAccess = Duration.ofHours(1);
+    }
+
+    @Data
+    public static class Pgvector {
+        // 未切换到pgvector检索前也写入embedding_vec，便于灰度迁移
+        private boolean dualWrite = false;
+        private int efSearch = 100;
+        // HNSW索引不区分用户，user_id 在索引扫描后过滤；relaxed_order 时扫描会继续直到凑满topK（pgvector 0.8+，
+        // docker-compose 的 pgvector/pgvector:pg15 镜像已支持），更早的版本需置空
+        private String iterativeScan = "relaxed_order";
+        private boolean migrateOnStartup = false;
+        private int migrationBatchSize = 500;
+        private long migrationPauseMs = 100;
+    }
+
+    @Data
+    public static class Quantization {
+        private Codec codec = Codec.INT8;
+        // 1536维时192段即每段8维，每向量192字节
+        private int pqSubspaces = 192;
+        private int pqTrainIterations = 6;
+        private int pqTrainSampleSize = 1000;
+        // 按比例抽样与精确检索对比并记录召回率，0为关闭
+        private double recallSampleRate = 0d;
+        // 内存中所有用户编码的向量总数上限（int8 约1.5KB/向量，pq 为 pq-subspaces 字节/向量），超出时按最近最少使用淘汰
+        private long cacheMaxVectors = 1_000_000;
+        private Duration cacheExpireAfterAccess = Duration.ofHours(1);
+
+        public enum Codec {
+            INT8, PQ
+        }
+    }
+
+    @Data
+    public static class Hybrid {
+        // 开启后写入 content_tsv，并在检索时与向量通道做RRF融合（需先执行 schema.sql 中的 content_tsv 部分）
+        private boolean enabled = false;
+        private int rrfK = 60;
+        private int lexicalLimit = 20;
+        // 向量通道（含查询embedding）超过该时间未返回时，仅用词法结果作答
+        private long vectorTimeoutMs = 1500;
+        private boolean backfillOnStartup = false;
+        private int backfillBatchSize = 200;
+    }
+
+    @Data
+    public static class QueryCache {
+        private boolean enabled = true;
+        private long maxSize = 10_000;
+        private Duration ttl = Duration.ofHours(6);
+        // 多实例部署时共享缓存，使用 spring.data.redis 的连接配置
+        private boolean redisEnabled = false;
+        private Duration redisTtl = Duration.ofDays(1);
+    }
+
+    @Data
+    public static class ChunkCache {
+        // 索引时按 SHA-256(模型名 + 分块文本) 复用 embedding_cache 中的向量
+        private boolean enabled = true;
+    }
+
+    @Data
+    public static class Embedding {
+        // 单个请求的最大条数与token数（按cl100k_base估算），OpenAI上限为2048条/30万token
+        private int batchMaxInputs = 128;
+        private int batchMaxTokens = 50_000;
+        // 全节点同时在途的embedding请求数（查询与索引共用），其中 query-reserved-slots 个只给查询使用
+        private int maxConcurrentBatches = 4;
+        private int queryReservedSlots = 1;
+        // 供应商配额：每分钟请求数与token数，0为不限
+        private int requestsPerMinute = 0;
+        private int tokensPerMinute = 0;
+        // 索引请求不能用掉的配额比例，留给检索查询
+        private double queryReserveRatio = 0.1;
+        // JDK 21+ 上请求在虚拟线程中执行
+        private boolean virtualThreads = true;
+        // 429的重试，退避时间指数增长并加随机抖动；5xx等暂时性错误由 spring.ai.retry.* 重试
+        private int maxRetries = 5;
+        private long retryInitialBackoffMs = 1000;
+        private long retryMaxBackoffMs = 30_000;
+    }
+
+    @Data
+    public static class Storage {
+        // embedding_bin 按半精度写入，体积再减半，精度约3位有效数字
+        private boolean float16 = false;
+        // 继续写 embedding(JSONB)，供尚未升级的实例读取
+        private boolean writeJson = false;
+        // 将存量 embedding(JSONB) 转为 embedding_bin
+        private boolean migrateOnStartup = false;
+        private int migrationBatchSize = 500;
+        // 转换后清空JSONB列以回收空间（VACUUM后生效）
+        private boolean dropJsonAfterMigration = false;
+        // 单次写入的分块数达到该值时改用二进制 COPY（0为不使用），小文件仍走 MyBatis 的多行 INSERT
+        private int copyThreshold = 1000;
+        // COPY 每批行数
+        private int copyBatchSize = 5000;
+    }
+
+    @Data
+    public static class ResultCache {
+        // 使用 spring.data.redis 的连接配置，多节点共享
+        private boolean enabled = false;
+        private Duration ttl = Duration.ofMinutes(30);
+    }
+
+    @Data
+    public static class Streaming {
+        // 边提取边分块边写库，内存占用与文档大小无关，且不受 Tika.parseToString 的10万字符上限限制
+        private boolean enabled = false;
+        // 提取线程与索引线程之间的分块队列容量，满时提取线程阻塞
+        private int queueCapacity = 64;
+        // 每批embedding并提交的分块数
+        private int batchSize = 32;
+    }
+
+    @Data
+    public static class IndexQueue {
+        // 每个节点同时执行的索引任务数
+        private int workers = 2;
+        private long pollIntervalMs = 2000;
+        // 执行期间每 lease-seconds/3 续租一次，节点宕机后最多 lease-seconds 秒任务被其它节点接管
+        private long leaseSeconds = 120;
+        private int maxAttempts = 5;
+        // 第n次失败后等待 retry-delay-seconds * 2^(n-1) 秒
+        private long retryDelaySeconds = 30;
+        private long maxRetryDelaySeconds = 1800;
+        // 索引时每embedding多少个分块写一次向量缓存，失败重试时已完成的部分不再请求
+        private int embedCheckpointSize = 256;
+    }
+
+    @Data
+    public static class IndexSync {
+        // 多节点下本地向量索引（hnsw/mmap/quantized）按Redis中每个用户的版本号失效，见 VectorIndexVersions；单节点部署可关闭
+        private boolean enabled = true;
+    }
+}
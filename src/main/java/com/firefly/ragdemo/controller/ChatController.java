@@ -3,28 +3,31 @@ package com.firefly.ragdemo.controller;
 import com.firefly.ragdemo.DTO.ChatRequest;
 import com.firefly.ragdemo.VO.ApiResponse;
 import com.firefly.ragdemo.VO.ChatResponseVO;
+import com.firefly.ragdemo.VO.ConversationVO;
+import com.firefly.ragdemo.config.ChatConfig;
+import com.firefly.ragdemo.entity.Conversation;
 import com.firefly.ragdemo.secutiry.CustomUserPrincipal;
 import com.firefly.ragdemo.service.ChatService;
+import com.firefly.ragdemo.service.ConversationService;
+import com.firefly.ragdemo.util.FrameCoalescer;
+import com.firefly.ragdemo.util.JsonEscaper;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import reactor.core.publisher.Flux;
-import reactor.core.Disposable;
-import java.util.concurrent.atomic.AtomicBoolean;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
 
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.stream.Collectors;
-import org.springframework.security.core.context.SecurityContext;
-import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.concurrent.DelegatingSecurityContextExecutorService;
 
 @RestController
 @RequiredArgsConstructor
@@ -32,8 +35,30 @@ import org.springframework.security.concurrent.DelegatingSecurityContextExecutor
 public class ChatController {
 
     private final ChatService chatService;
-    private final ExecutorService executorService = 
-        new DelegatingSecurityContextExecutorService(Executors.newCachedThreadPool());
+    private final ConversationService conversationService;
+    // 见 ChatStreamConfig：虚拟线程模式下为虚拟线程
+    private final Scheduler chatStreamScheduler;
+    private final ChatConfig chatConfig;
+
+    /**
+     * 创建服务端会话，之后的 /ask 带上 conversationId 时只需发送本轮的新消息
+     */
+    @PostMapping("/conversations")
+    public ResponseEntity<ApiResponse<ConversationVO>> createConversation(
+            @AuthenticationPrincipal CustomUserPrincipal principal) {
+        try {
+            Conversation conversation = conversationService.createConversation(principal.getUserId());
+            ConversationVO vo = ConversationVO.builder()
+                    .id(conversation.getId())
+                    .createdAt(conversation.getCreatedAt())
+                    .build();
+            return ResponseEntity.ok(ApiResponse.success("会话已创建", vo));
+        } catch (Exception e) {
+            log.error("创建会话失败 for user {}: {}", principal.getUserId(), e.getMessage(), e);
+            return ResponseEntity.status(500)
+                    .body(ApiResponse.error("创建会话失败"));
+        }
+    }
 
     @PostMapping("/ask")
     public ResponseEntity<?> ask(@Valid @RequestBody ChatRequest request,
@@ -55,6 +80,11 @@ public class ChatController {
         try {
             String userId = principal.getUserId();
 
+            if (request.getConversationId() != null) {
+                // 在请求线程上校验会话归属并预先加载历史窗口，会话无效时直接返回错误而不是开始流
+                conversationService.getHistory(request.getConversationId(), userId);
+            }
+
             if (Boolean.TRUE.equals(request.getStream())) {
                 // 流式响应
                 return handleStreamResponse(request, userId);
@@ -63,6 +93,13 @@ public class ChatController {
                 return handleNormalResponse(request, userId);
             }
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage(), 400));
+        } catch (AccessDeniedException e) {
+            log.warn("用户 {} 访问会话被拒绝: {}", principal.getUserId(), request.getConversationId());
+            return ResponseEntity.status(403)
+                    .body(ApiResponse.error("权限不足", 403));
         } catch (Exception e) {
             log.error("对话请求失败 for user {}: {}", principal.getUserId(), e.getMessage(), e);
             return ResponseEntity.status(500)
@@ -70,135 +107,43 @@ public class ChatController {
         }
     }
 
-    private ResponseEntity<SseEmitter> handleStreamResponse(ChatRequest request, String userId) {
-        SseEmitter emitter = new SseEmitter(30000L); // 30秒超时，避免无限等待
-
-        // 通过原子标志跟踪是否已完成，避免完成后继续发送
-        AtomicBoolean isCompleted = new AtomicBoolean(false);
-        // 订阅引用，便于在完成/出错时取消
-        final Disposable[] subscriptionRef = new Disposable[1];
-
-        // 设置完成和超时回调
-        emitter.onCompletion(() -> {
-            log.debug("SSE连接完成");
-            isCompleted.set(true);
-            if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                subscriptionRef[0].dispose();
-            }
-        });
-        emitter.onTimeout(() -> {
-            log.debug("SSE连接超时");
-            if (!isCompleted.get()) {
-                isCompleted.set(true);
-                emitter.complete();
-            }
-            if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                subscriptionRef[0].dispose();
-            }
-        });
-        emitter.onError(throwable -> {
-            log.error("SSE连接出错", throwable);
-            if (!isCompleted.get()) {
-                isCompleted.set(true);
-                try { emitter.complete(); } catch (Exception ignore) {}
-            }
-            if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                subscriptionRef[0].dispose();
-            }
-        });
-
-        // 保存当前安全上下文
-        SecurityContext securityContext = SecurityContextHolder.getContext();
-        
-        executorService.execute(() -> {
-            // 在异步线程中设置安全上下文
-            SecurityContextHolder.setContext(securityContext);
-            try {
-                Flux<String> responseStream = chatService.chatStream(request, userId);
-
-                subscriptionRef[0] = responseStream.subscribe(
-                        chunk -> {
-                            if (isCompleted.get()) return;
-                            try {
-                                // 发送SSE格式的数据，仅发送JSON在data行
-                                String payload = chunk.replace("\"", "\\\"").replace("\n", "\\n");
-                                String json = "{\"message\":{\"content\":\"" + payload + "\"}}";
-                                emitter.send(SseEmitter.event().data(json));
-                            } catch (Exception e) {
-                                log.error("发送SSE数据失败", e);
-                                if (!isCompleted.get()) {
-                                    isCompleted.set(true);
-                                    try { emitter.complete(); } catch (Exception ignore) {}
-                                }
-                                if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                                    subscriptionRef[0].dispose();
-                                }
-                            }
-                        },
-                        error -> {
-                            log.error("流式对话出错", error);
-                            if (!isCompleted.get()) {
-                                try {
-                                    String errorMsg = error.getMessage() == null ? "unknown" : error.getMessage();
-                                    String safeMsg = errorMsg.replace("\"", "\\\"").replace("\n", "\\n");
-                                    String json = "{\"error\":\"" + safeMsg + "\"}";
-                                    emitter.send(SseEmitter.event().data(json));
-                                } catch (Exception e) {
-                                    log.error("发送错误信息失败", e);
-                                } finally {
-                                    isCompleted.set(true);
-                                    try { emitter.complete(); } catch (Exception ignore) {}
-                                }
-                            }
-                            if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                                subscriptionRef[0].dispose();
-                            }
-                        },
-                        () -> {
-                            log.info("流式对话完成");
-                            if (!isCompleted.get()) {
-                                try {
-                                    String json = "{\"done\":true}";
-                                    emitter.send(SseEmitter.event().data(json));
-                                } catch (Exception e) {
-                                    log.error("发送完成信号失败", e);
-                                } finally {
-                                    isCompleted.set(true);
-                                    try { emitter.complete(); } catch (Exception ignore) {}
-                                }
-                            }
-                            if (subscriptionRef[0] != null && !subscriptionRef[0].isDisposed()) {
-                                subscriptionRef[0].dispose();
-                            }
-                        });
-
-            } catch (Exception e) {
-                log.error("启动流式对话失败", e);
-                if (!isCompleted.get()) {
-                    try {
-                        String errorMsg = e.getMessage() == null ? "unknown" : e.getMessage();
-                        String safeMsg = errorMsg.replace("\"", "\\\"").replace("\n", "\\n");
-                        String json = "{\"error\":\"" + safeMsg + "\"}";
-                        emitter.send(SseEmitter.event().data(json));
-                    } catch (Exception sendError) {
-                        log.error("发送初始错误信息失败", sendError);
-                    } finally {
-                        isCompleted.set(true);
-                        try { emitter.complete(); } catch (Exception ignore) {}
-                    }
-                }
-            } finally {
-                // 清理安全上下文
-                SecurityContextHolder.clearContext();
-            }
-        });
+    /**
+     * 直接返回 Flux 由Spring MVC以servlet异步写出：每写完一个事件才向上游请求下一个（背压），
+     * 客户端断开时取消订阅并一路取消到上游的OpenAI流；流在进行中不占用任何线程。
+     * 增量按 frame-max-chars / frame-window 合并为帧，每帧一个SSE事件（一次写出与flush）。
+     * 上游超过 stream-idle-timeout 没有新内容时以错误事件结束
+     */
+    private ResponseEntity<Flux<ServerSentEvent<String>>> handleStreamResponse(ChatRequest request, String userId) {
+        Flux<String> deltas = Flux.defer(() -> chatService.chatStream(request, userId))
+                // 检索阶段是阻塞调用，在流式生产者线程上执行，不占用请求线程
+                .subscribeOn(chatStreamScheduler)
+                .timeout(chatConfig.getStreamIdleTimeout(), Flux.error(new IllegalStateException("流式响应超时")));
+
+        Flux<ServerSentEvent<String>> events = FrameCoalescer
+                .coalesce(deltas, "{\"message\":{\"content\":\"", "\"}}", chatConfig.getFrameMaxChars(), chatConfig.getFrameWindow(), Schedulers.parallel())
+                .map(ChatController::event)
+                .concatWith(Mono.fromSupplier(() -> {
+                    log.info("流式对话完成");
+                    return event("{\"done\":true}");
+                }))
+                .onErrorResume(error -> {
+                    log.error("流式对话出错", error);
+                    String errorMsg = error.getMessage() == null ? "unknown" : error.getMessage();
+                    return Mono.just(event(JsonEscaper.append(new StringBuilder("{\"error\":\""), errorMsg)
+                            .append("\"}").toString()));
+                })
+                .doOnCancel(() -> log.debug("SSE连接已断开，取消上游流"));
 
         return ResponseEntity.ok()
                 .contentType(MediaType.TEXT_EVENT_STREAM)
                 .header("Cache-Control", "no-cache")
                 .header("Connection", "keep-alive")
                 .header("X-Accel-Buffering", "no") // 禁用Nginx缓冲
-                .body(emitter);
+                .body(events);
+    }
+
+    private static ServerSentEvent<String> event(String json) {
+        return ServerSentEvent.builder(json).build();
     }
 
     private ResponseEntity<ApiResponse<ChatResponseVO>> handleNormalResponse(ChatRequest request, String userId) {
@@ -207,6 +152,8 @@ public class ChatController {
             ApiResponse<ChatResponseVO> apiResponse = ApiResponse.success("对话完成", response);
             return ResponseEntity.ok(apiResponse);
 
+        } catch (IllegalArgumentException | AccessDeniedException e) {
+            throw e;
         } catch (Exception e) {
             log.error("对话请求处理失败", e);
             return ResponseEntity.status(500)
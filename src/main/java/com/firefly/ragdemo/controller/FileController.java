@@ -9,6 +9,7 @@ import com.firefly.ragdemo.util.PageResult;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.http.ResponseEntity;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.core.annotation.AuthenticationPrincipal;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
@@ -56,11 +57,15 @@ public class FileController {
     public ResponseEntity<ApiResponse<Map<String, Object>>> getFiles(
             @RequestParam(defaultValue = "1") int page,
             @RequestParam(defaultValue = "10") int limit,
+            @RequestParam(required = false) String cursor,
             @AuthenticationPrincipal CustomUserPrincipal principal) {
 
         try {
             String userId = principal.getUserId();
-            PageResult<FileVO> pageResult = fileService.getUserFiles(userId, page, limit);
+            // 带 cursor 参数（首页为空字符串）时按游标分页，否则沿用 page/limit
+            PageResult<FileVO> pageResult = cursor != null
+                    ? fileService.getUserFilesByCursor(userId, cursor, limit)
+                    : fileService.getUserFiles(userId, page, limit);
 
             List<FileVO> files = pageResult.getItems();
 
@@ -69,6 +74,7 @@ public class FileController {
             pagination.put("limit", pageResult.getLimit());
             pagination.put("total", pageResult.getTotal());
             pagination.put("totalPages", pageResult.getTotalPages());
+            pagination.put("nextCursor", pageResult.getNextCursor());
 
             Map<String, Object> data = new HashMap<>();
             data.put("files", files);
@@ -77,6 +83,9 @@ public class FileController {
             ApiResponse<Map<String, Object>> response = ApiResponse.success("获取文件列表成功", data);
             return ResponseEntity.ok(response);
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error(e.getMessage(), 400));
         } catch (Exception e) {
             log.error("获取文件列表失败 for user {}: {}", principal.getUserId(), e.getMessage(), e);
             return ResponseEntity.status(500)
@@ -84,6 +93,28 @@ public class FileController {
         }
     }
 
+    @PutMapping("/files/{fileId}")
+    public ResponseEntity<ApiResponse<FileVO>> replaceFile(@PathVariable String fileId,
+                                                           @RequestParam("file") MultipartFile file,
+                                                           @AuthenticationPrincipal CustomUserPrincipal principal) {
+        if (file.isEmpty()) {
+            return ResponseEntity.badRequest()
+                    .body(ApiResponse.error("请选择要上传的文件", 400));
+        }
+        try {
+            FileVO fileVO = fileService.replaceFile(principal.getUserId(), fileId, file);
+            return ResponseEntity.ok(ApiResponse.success("文件替换成功，开始增量处理", fileVO));
+        } catch (IllegalArgumentException e) {
+            log.warn("文件替换验证失败 for user {}: {}", principal.getUserId(), e.getMessage());
+            return ResponseEntity.badRequest().body(ApiResponse.error(e.getMessage(), 400));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(403).body(ApiResponse.error(e.getMessage(), 403));
+        } catch (Exception e) {
+            log.error("文件替换失败 for user {}: {}", principal.getUserId(), e.getMessage(), e);
+            return ResponseEntity.status(500).body(ApiResponse.error("文件替换失败"));
+        }
+    }
+
     @DeleteMapping("/files/{fileId}")
     public ResponseEntity<ApiResponse<Void>> deleteFile(@PathVariable String fileId,
                                                         @AuthenticationPrincipal CustomUserPrincipal principal) {
@@ -0,0 +1,23 @@
+package com.firefly.ragdemo.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Conversation {
+
+    private String id;
+
+    private String userId;
+
+    private LocalDateTime createdAt;
+
+    private LocalDateTime updatedAt;
+}
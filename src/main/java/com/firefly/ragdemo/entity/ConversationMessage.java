@@ -0,0 +1,26 @@
+package com.firefly.ragdemo.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class ConversationMessage {
+
+    // 自增序号，created_at 相同时按它排序
+    private Long id;
+
+    private String conversationId;
+
+    private String role;
+
+    private String content;
+
+    private LocalDateTime createdAt;
+}
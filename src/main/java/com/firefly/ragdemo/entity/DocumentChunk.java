@@ -23,8 +23,17 @@ public class DocumentChunk {
 
     private String content;
 
-    // 将embedding以JSON数组字符串形式存储（PostgreSQL使用jsonb）
+    // content 的 SHA-256（十六进制），用于文件替换时的分块比对
+    private String contentHash;
+
+    // 旧格式：JSON数组字符串（jsonb列 embedding）；写 embedding_vec 时也用作 pgvector 的文本输入
     private String embeddingJson;
 
+    // embedding_bin(bytea)，经 FloatArrayTypeHandler 读写
+    private float[] embedding;
+
+    // 空格分隔的检索词位，仅写入时使用（content_tsv）
+    private String lexemes;
+
     private LocalDateTime createdAt;
 } 
\ No newline at end of file
@@ -0,0 +1,28 @@
+package com.firefly.ragdemo.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class EmbeddingCacheEntry {
+
+    // SHA-256(模型名 + 分块文本) 的十六进制串
+    private String contentHash;
+
+    private String model;
+
+    // embedding_bin
+    private float[] embedding;
+
+    // 旧条目的 embedding(JSONB)，只在 embedding_bin 为空时读取
+    private String embeddingJson;
+
+    private LocalDateTime createdAt;
+}
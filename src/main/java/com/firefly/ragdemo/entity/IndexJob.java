@@ -0,0 +1,38 @@
+package com.firefly.ragdemo.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.LocalDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class IndexJob {
+
+    private String id;
+
+    private String fileId;
+
+    private JobStatus status;
+
+    // 已领取次数（含当前这次）
+    private Integer attempts;
+
+    private LocalDateTime nextRunAt;
+
+    private String leaseOwner;
+
+    private LocalDateTime leaseExpiresAt;
+
+    private String lastError;
+
+    private LocalDateTime createdAt;
+
+    public enum JobStatus {
+        PENDING, RUNNING, FAILED
+    }
+}
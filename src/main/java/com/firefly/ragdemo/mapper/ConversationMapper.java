@@ -0,0 +1,28 @@
+package com.firefly.ragdemo.mapper;
+
+import com.firefly.ragdemo.entity.Conversation;
+import com.firefly.ragdemo.entity.ConversationMessage;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+
+@Mapper
+public interface ConversationMapper {
+
+    int insert(Conversation conversation);
+
+    Optional<Conversation> findById(@Param("id") String id);
+
+    /**
+     * 最近的 limit 条消息，按时间倒序
+     */
+    List<ConversationMessage> findRecentMessages(@Param("conversationId") String conversationId,
+                                                 @Param("limit") int limit);
+
+    int insertMessages(@Param("messages") List<ConversationMessage> messages);
+
+    int touch(@Param("ids") Collection<String> ids);
+}
@@ -3,17 +3,59 @@ package com.firefly.ragdemo.mapper;
 import com.firefly.ragdemo.entity.DocumentChunk;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.session.ResultHandler;
 
 import java.util.List;
 
 @Mapper
 public interface DocumentChunkMapper {
 
-    int insertBatch(@Param("chunks") List<DocumentChunk> chunks);
+    int insertBatch(@Param("chunks") List<DocumentChunk> chunks,
+                    @Param("writeJson") boolean writeJson,
+                    @Param("writeVector") boolean writeVector,
+                    @Param("writeLexemes") boolean writeLexemes);
 
-    List<DocumentChunk> searchTopKByUser(@Param("userId") String userId,
-                                         @Param("queryEmbeddingJson") String queryEmbeddingJson,
-                                         @Param("topK") int topK);
+    List<DocumentChunk> searchTopKByUserVector(@Param("userId") String userId,
+                                               @Param("queryEmbedding") String queryEmbedding,
+                                               @Param("topK") int topK);
+
+    List<DocumentChunk> searchLexicalByUser(@Param("userId") String userId,
+                                            @Param("tsQuery") String tsQuery,
+                                            @Param("limit") int limit);
+
+    List<DocumentChunk> findChunksWithoutLexemes(@Param("limit") int limit);
+
+    int updateLexemesBatch(@Param("chunks") List<DocumentChunk> chunks);
+
+    String setLocalConfig(@Param("name") String name, @Param("value") String value);
+
+    int backfillVectorColumn(@Param("batchSize") int batchSize);
+
+    List<DocumentChunk> findChunksWithoutBinary(@Param("limit") int limit);
+
+    int updateEmbeddingBinBatch(@Param("chunks") List<DocumentChunk> chunks, @Param("dropJson") boolean dropJson);
+
+    List<DocumentChunk> findChunksWithoutVectorColumn(@Param("limit") int limit);
+
+    int updateVectorColumnBatch(@Param("chunks") List<DocumentChunk> chunks);
+
+    List<DocumentChunk> findVectorsByUser(@Param("userId") String userId);
+
+    void scanVectorsByUser(@Param("userId") String userId, @Param("limit") int limit, ResultHandler<DocumentChunk> handler);
+
+    boolean hasChunksWithoutVectorColumn(@Param("userId") String userId);
+
+    List<DocumentChunk> findVectorsByIds(@Param("ids") List<String> ids);
+
+    List<DocumentChunk> findByIds(@Param("ids") List<String> ids);
+
+    List<DocumentChunk> findVectorsByFile(@Param("fileId") String fileId);
+
+    List<DocumentChunk> findHashesByFile(@Param("fileId") String fileId);
+
+    int updateChunkIndexBatch(@Param("chunks") List<DocumentChunk> chunks);
+
+    int deleteByIds(@Param("ids") List<String> ids);
 
     int deleteByFileIdAndUser(@Param("fileId") String fileId, @Param("userId") String userId);
 } 
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.firefly.ragdemo.mapper;
+
+import com.firefly.ragdemo.entity.EmbeddingCacheEntry;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface EmbeddingCacheMapper {
+
+    List<EmbeddingCacheEntry> findByHashes(@Param("hashes") List<String> hashes);
+
+    int insertBatch(@Param("entries") List<EmbeddingCacheEntry> entries);
+}
@@ -0,0 +1,42 @@
+package com.firefly.ragdemo.mapper;
+
+import com.firefly.ragdemo.entity.IndexJob;
+import org.apache.ibatis.annotations.Mapper;
+import org.apache.ibatis.annotations.Param;
+
+import java.util.List;
+
+@Mapper
+public interface IndexJobMapper {
+
+    int insert(IndexJob job);
+
+    List<IndexJob> claim(@Param("owner") String owner,
+                         @Param("limit") int limit,
+                         @Param("leaseSeconds") long leaseSeconds);
+
+    int renewLeases(@Param("owner") String owner,
+                    @Param("ids") List<String> ids,
+                    @Param("leaseSeconds") long leaseSeconds);
+
+    int deleteCompleted(@Param("id") String id, @Param("owner") String owner);
+
+    int deleteIfSuperseded(@Param("id") String id, @Param("owner") String owner);
+
+    int reschedule(@Param("id") String id,
+                   @Param("owner") String owner,
+                   @Param("delaySeconds") long delaySeconds,
+                   @Param("error") String error);
+
+    int markFailed(@Param("id") String id, @Param("owner") String owner, @Param("error") String error);
+
+    int deleteSupersededExpired();
+
+    int failExhaustedExpired(@Param("maxAttempts") int maxAttempts);
+
+    int recoverExpiredLeases();
+
+    int enqueueOrphanedFiles();
+
+    long countByStatus(@Param("status") String status);
+}
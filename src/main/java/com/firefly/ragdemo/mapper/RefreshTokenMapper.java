@@ -20,5 +20,7 @@ public interface RefreshTokenMapper {
 
     int revokeToken(@Param("token") String token);
 
+    int revokeValidToken(@Param("token") String token, @Param("userId") String userId, @Param("now") LocalDateTime now);
+
     int deleteExpiredTokens(@Param("now") LocalDateTime now);
 } 
\ No newline at end of file
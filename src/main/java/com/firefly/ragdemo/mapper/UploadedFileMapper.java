@@ -4,6 +4,7 @@ import com.firefly.ragdemo.entity.UploadedFile;
 import org.apache.ibatis.annotations.Mapper;
 import org.apache.ibatis.annotations.Param;
 
+import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -16,8 +17,15 @@ public interface UploadedFileMapper {
                                                          @Param("offset") int offset,
                                                          @Param("limit") int limit);
 
+    List<UploadedFile> findByUserIdBefore(@Param("userId") String userId,
+                                          @Param("cursorTime") LocalDateTime cursorTime,
+                                          @Param("cursorId") String cursorId,
+                                          @Param("limit") int limit);
+
     long countByUserId(@Param("userId") String userId);
 
+    int addFileCount(@Param("userId") String userId, @Param("delta") long delta);
+
     int insert(UploadedFile file);
 
     int updateStatus(@Param("id") String id, @Param("status") String status);
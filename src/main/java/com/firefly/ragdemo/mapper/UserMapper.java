@@ -23,4 +23,6 @@ public interface UserMapper {
     int insert(User user);
 
     int updateLastLogin(@Param("userId") String userId, @Param("lastLogin") LocalDateTime lastLogin);
+
+    int updateActive(@Param("userId") String userId, @Param("active") boolean active);
 } 
\ No newline at end of file
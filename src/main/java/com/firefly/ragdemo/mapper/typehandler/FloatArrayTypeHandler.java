@@ -0,0 +1,46 @@
+package com.firefly.ragdemo.mapper.typehandler;
+
+import com.firefly.ragdemo.util.FloatArrayCodec;
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * float[] 与 bytea 互转，格式见 FloatArrayCodec；写入格式由 app.rag.storage.float16 决定
+ */
+public class FloatArrayTypeHandler extends BaseTypeHandler<float[]> {
+
+    private final boolean half;
+
+    public FloatArrayTypeHandler() {
+        this(false);
+    }
+
+    public FloatArrayTypeHandler(boolean half) {
+        this.half = half;
+    }
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, float[] parameter, JdbcType jdbcType) throws SQLException {
+        ps.setBytes(i, FloatArrayCodec.encode(parameter, half));
+    }
+
+    @Override
+    public float[] getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return FloatArrayCodec.decode(rs.getBytes(columnName));
+    }
+
+    @Override
+    public float[] getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return FloatArrayCodec.decode(rs.getBytes(columnIndex));
+    }
+
+    @Override
+    public float[] getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return FloatArrayCodec.decode(cs.getBytes(columnIndex));
+    }
+}
@@ -1,7 +1,9 @@
 package com.firefly.ragdemo.secutiry;
 
 import com.firefly.ragdemo.service.UserService;
+import io.jsonwebtoken.Claims;
 import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -34,21 +36,23 @@ public class JwtAuthenticationFilter extends OncePerRequestFilter {
 
         if (StringUtils.hasText(jwt)) {
             try {
-                if (jwtUtil.validateToken(jwt)) {
-                    String userId = jwtUtil.getUserIdFromToken(jwt);
+                // 每个请求只解析一次token，用户信息走 UserService 的短期缓存
+                Claims claims = jwtUtil.getClaimsFromToken(jwt);
+                String userId = claims.get("userId", String.class);
 
-                    UserDetails userDetails = userService.loadUserByUserId(userId);
+                UserDetails userDetails = userService.loadUserByUserId(userId);
 
-                    if (userDetails != null) {
-                        UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
-                                userDetails, null, userDetails.getAuthorities());
-                        authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                if (userDetails != null) {
+                    UsernamePasswordAuthenticationToken authentication = new UsernamePasswordAuthenticationToken(
+                            userDetails, null, userDetails.getAuthorities());
+                    authentication.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
 
-                        SecurityContextHolder.getContext().setAuthentication(authentication);
-                    }
+                    SecurityContextHolder.getContext().setAuthentication(authentication);
                 }
             } catch (ExpiredJwtException ex) {
                 log.warn("JWT token is expired: {}", ex.getMessage());
+            } catch (JwtException | IllegalArgumentException ex) {
+                // 无效token按未认证处理，解析时已记录原因
             } catch (Exception ex) {
                 log.error("Could not set user authentication in security context", ex);
             }
@@ -3,7 +3,6 @@ package com.firefly.ragdemo.secutiry;
 import com.firefly.ragdemo.config.JwtConfig;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.security.Keys;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Component;
 
@@ -11,16 +10,25 @@ import javax.crypto.SecretKey;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.UUID;
 
 @Component
-@RequiredArgsConstructor
 @Slf4j
 public class JwtUtil {
 
     private final JwtConfig jwtConfig;
+    // 密钥与解析器只构建一次，每次签发/解析不再重新派生HMAC密钥
+    private final SecretKey signingKey;
+    private final JwtParser parser;
+
+    public JwtUtil(JwtConfig jwtConfig) {
+        this.jwtConfig = jwtConfig;
+        this.signingKey = Keys.hmacShaKeyFor(jwtConfig.getSecret().getBytes());
+        this.parser = Jwts.parserBuilder().setSigningKey(signingKey).build();
+    }
 
     private SecretKey getSigningKey() {
-        return Keys.hmacShaKeyFor(jwtConfig.getSecret().getBytes());
+        return signingKey;
     }
 
     public String generateAccessToken(String userId, String username) {
@@ -46,6 +54,8 @@ public class JwtUtil {
                 .setClaims(claims)
                 .setSubject(userId)
                 .setIssuedAt(new Date())
+                // 同一秒内签发的刷新令牌也互不相同
+                .setId(UUID.randomUUID().toString())
                 .setExpiration(new Date(System.currentTimeMillis() + jwtConfig.getRefreshTokenExpiration() * 1000L))
                 .signWith(getSigningKey(), SignatureAlgorithm.HS256)
                 .compact();
@@ -53,11 +63,7 @@ public class JwtUtil {
 
     public Claims getClaimsFromToken(String token) {
         try {
-            return Jwts.parserBuilder()
-                    .setSigningKey(getSigningKey())
-                    .build()
-                    .parseClaimsJws(token)
-                    .getBody();
+            return parser.parseClaimsJws(token).getBody();
         } catch (ExpiredJwtException e) {
             log.warn("JWT token is expired: {}", e.getMessage());
             throw e;
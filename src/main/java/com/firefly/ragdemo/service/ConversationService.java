@@ -0,0 +1,21 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.entity.Conversation;
+import com.firefly.ragdemo.entity.ConversationMessage;
+
+import java.util.List;
+
+public interface ConversationService {
+
+    Conversation createConversation(String userId);
+
+    /**
+     * 会话最近 history-window 条消息，按时间顺序。会话不存在时抛出 IllegalArgumentException，不属于该用户时抛出 AccessDeniedException
+     */
+    List<ConversationMessage> getHistory(String conversationId, String userId);
+
+    /**
+     * 追加一轮对话的消息：立即进入内存中的历史窗口，由后台线程批量写库
+     */
+    void appendTurn(String conversationId, String userId, List<ConversationMessage> messages);
+}
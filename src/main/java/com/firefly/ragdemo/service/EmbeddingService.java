@@ -1,10 +1,42 @@
 package com.firefly.ragdemo.service;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public interface EmbeddingService {
 
-    List<Double> embed(String text);
+    float[] embedVector(String text);
 
-    List<List<Double>> embedBatch(List<String> texts);
-} 
\ No newline at end of file
+    /**
+     * 检索查询用的embedding，按规范化后的文本缓存
+     */
+    float[] embedQueryVector(String text);
+
+    /**
+     * 结果与 texts 一一对应
+     */
+    float[][] embedBatchVectors(List<String> texts);
+
+    default List<Double> embed(String text) {
+        return toList(embedVector(text));
+    }
+
+    default List<Double> embedQuery(String text) {
+        return toList(embedQueryVector(text));
+    }
+
+    default List<List<Double>> embedBatch(List<String> texts) {
+        float[][] vectors = embedBatchVectors(texts);
+        List<List<Double>> result = new ArrayList<>(vectors.length);
+        for (float[] v : vectors) {
+            result.add(toList(v));
+        }
+        return result;
+    }
+
+    private static List<Double> toList(float[] v) {
+        List<Double> out = new ArrayList<>(v.length);
+        for (float x : v) out.add((double) x);
+        return out;
+    }
+}
@@ -15,7 +15,17 @@ public interface FileService {
 
     PageResult<FileVO> getUserFiles(String userId, int page, int limit);
 
+    /**
+     * 游标分页：cursor 为上一页返回的 nextCursor，为空时取第一页
+     */
+    PageResult<FileVO> getUserFilesByCursor(String userId, String cursor, int limit);
+
     Optional<UploadedFile> findById(String fileId);
 
     void deleteUserFile(String userId, String fileId);
+
+    /**
+     * 用新内容替换已有文件，重新索引时只处理发生变化的分块
+     */
+    FileVO replaceFile(String userId, String fileId, MultipartFile file) throws IOException;
 }
@@ -8,6 +8,11 @@ public interface RefreshTokenService {
 
     RefreshToken createRefreshToken(String userId, String username);
 
+    /**
+     * 原子地吊销旧令牌并签发新令牌；旧令牌已吊销、已过期或不属于该用户时返回空
+     */
+    Optional<RefreshToken> rotate(String token, String userId, String username);
+
     Optional<RefreshToken> findValidToken(String token);
 
     void revokeToken(String token);
@@ -5,4 +5,11 @@ import java.util.List;
 public interface TextChunker {
 
     List<String> split(String text);
-} 
\ No newline at end of file
+
+    /**
+     * 返回分块视图，实现可以延迟到 toString() 时才生成字符串
+     */
+    default List<? extends CharSequence> chunk(CharSequence text) {
+        return split(text == null ? null : text.toString());
+    }
+}
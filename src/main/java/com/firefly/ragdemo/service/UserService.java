@@ -20,4 +20,14 @@ public interface UserService extends UserDetailsService {
     User save(User user);
 
     void updateLastLogin(String userId);
+
+    /**
+     * 启用/禁用账户，禁用后已签发的token在下一次请求即失效
+     */
+    void setActive(String userId, boolean active);
+
+    /**
+     * 使认证用户信息缓存失效，下一次请求重新从数据库加载
+     */
+    void evictPrincipal(String userId);
 }
@@ -0,0 +1,29 @@
+package com.firefly.ragdemo.service;
+
+import com.firefly.ragdemo.entity.DocumentChunk;
+
+import java.util.List;
+
+public interface VectorIndexService {
+
+    /**
+     * 返回与查询向量最相近的chunkId（按相似度降序）
+     *
+     * @param candidateLimit 近似检索阶段的候选数量，由各实现决定如何使用
+     */
+    List<String> search(String userId, float[] query, int topK, int candidateLimit);
+
+    void addChunks(String userId, List<DocumentChunk> chunks);
+
+    void removeFile(String userId, String fileId);
+
+    /**
+     * 移除文件中的部分分块（文件替换后不再存在的分块）
+     */
+    void removeChunks(String userId, String fileId, List<String> chunkIds);
+
+    /**
+     * 丢弃本节点为该用户保存的索引，下次检索时从数据库重建（其它节点修改了该用户的分块）
+     */
+    void invalidate(String userId);
+}
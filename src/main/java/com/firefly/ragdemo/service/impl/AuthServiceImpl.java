@@ -11,7 +11,10 @@ import com.firefly.ragdemo.secutiry.JwtUtil;
 import com.firefly.ragdemo.service.AuthService;
 import com.firefly.ragdemo.service.RefreshTokenService;
 import com.firefly.ragdemo.service.UserService;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.JwtException;
 import lombok.RequiredArgsConstructor;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
@@ -98,27 +101,30 @@ public class AuthServiceImpl implements AuthService {
         return ApiResponse.success("登录成功", responseVO);
     }
 
+    /**
+     * 不开启外层事务：数据库存储时 rotate 自带事务，Redis存储时整个刷新不占用数据库连接
+     */
     @Override
-    @Transactional
     public ApiResponse<LoginResponseVO> refreshToken(String refreshTokenValue) {
-        if (!refreshTokenService.isValidRefreshToken(refreshTokenValue)) {
-            return ApiResponse.error("刷新令牌无效或已过期", 401);
-        }
-        Optional<RefreshToken> tokenOpt = refreshTokenService.findValidToken(refreshTokenValue);
-        if (tokenOpt.isEmpty()) {
+        // 签名与过期时间在本地校验，令牌是否已吊销由 rotate 在存储中原子判定
+        Claims claims;
+        try {
+            claims = jwtUtil.getClaimsFromToken(refreshTokenValue);
+        } catch (JwtException | IllegalArgumentException e) {
             return ApiResponse.error("刷新令牌无效或已过期", 401);
         }
-        RefreshToken refreshToken = tokenOpt.get();
-        String userId = refreshToken.getUserId();
-        Optional<User> userOpt = userService.findById(userId);
-        if (userOpt.isEmpty()) {
+        String userId = claims.get("userId", String.class);
+        UserDetails user = userService.loadUserByUserId(userId);
+        if (user == null) {
             return ApiResponse.error("用户不存在", 404);
         }
-        User user = userOpt.get();
 
-        String newAccessToken = jwtUtil.generateAccessToken(user.getId(), user.getUsername());
-        RefreshToken newRefreshToken = refreshTokenService.createRefreshToken(user.getId(), user.getUsername());
-        refreshTokenService.revokeToken(refreshTokenValue);
+        Optional<RefreshToken> rotated = refreshTokenService.rotate(refreshTokenValue, userId, user.getUsername());
+        if (rotated.isEmpty()) {
+            return ApiResponse.error("刷新令牌无效或已过期", 401);
+        }
+        String newAccessToken = jwtUtil.generateAccessToken(userId, user.getUsername());
+        RefreshToken newRefreshToken = rotated.get();
 
         LoginResponseVO responseVO = LoginResponseVO.builder()
                 .token(newAccessToken)
@@ -135,6 +141,7 @@ public class AuthServiceImpl implements AuthService {
         if (refreshTokenValue != null && !refreshTokenValue.isEmpty()) {
             refreshTokenService.revokeToken(refreshTokenValue);
         }
+        userService.evictPrincipal(userId);
         return ApiResponse.success("登出成功", null);
     }
 } 
\ No newline at end of file
@@ -2,14 +2,22 @@ package com.firefly.ragdemo.service.impl;
 
 import com.firefly.ragdemo.DTO.ChatRequest;
 import com.firefly.ragdemo.VO.ChatResponseVO;
+import com.firefly.ragdemo.config.ChatConfig;
+import com.firefly.ragdemo.entity.ConversationMessage;
 import com.firefly.ragdemo.service.ChatService;
+import com.firefly.ragdemo.service.ConversationService;
 import com.firefly.ragdemo.service.RagRetrievalService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.openai.OpenAiChatModel;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+import java.time.LocalDateTime;
+import java.util.ArrayList;
 import java.util.List;
 
 @Service
@@ -19,14 +27,20 @@ public class ChatServiceImpl implements ChatService {
 
     private final OpenAiChatModel chatModel;
     private final RagRetrievalService ragRetrievalService;
+    private final ConversationService conversationService;
+    private final ChatConfig chatConfig;
+    // 见 ChatStreamConfig
+    private final Scheduler chatStreamScheduler;
 
     @Override
     public ChatResponseVO chat(ChatRequest request, String userId) {
         try {
-            String finalPrompt = buildSystemPrompt(request) + "\n\n" + buildRagContext(request, userId) + "\n\n" + buildConversationPrompt(request.getMessages());
+            LocalDateTime askedAt = LocalDateTime.now();
+            String finalPrompt = buildPrompt(request, userId);
 
             var response = chatModel.call(finalPrompt);
             String content = response;
+            appendTurn(request, userId, askedAt, content);
 
             ChatResponseVO.UsageVO usageVO = ChatResponseVO.UsageVO.builder()
                     .promptTokens(estimateTokens(finalPrompt))
@@ -37,27 +51,106 @@ public class ChatServiceImpl implements ChatService {
             return ChatResponseVO.builder()
                     .response(content)
                     .usage(usageVO)
+                    .conversationId(request.getConversationId())
                     .build();
 
+        } catch (IllegalArgumentException | AccessDeniedException e) {
+            throw e;
         } catch (Exception e) {
             log.error("Chat request failed for user {}: {}", userId, e.getMessage(), e);
             throw new RuntimeException("对话请求失败: " + e.getMessage());
         }
     }
 
+    /**
+     * 带会话ID时，流正常结束后把本轮的用户消息与完整回复追加到会话；客户端断开或出错的轮次不记录
+     */
     @Override
     public Flux<String> chatStream(ChatRequest request, String userId) {
         try {
-            String finalPrompt = buildSystemPrompt(request) + "\n\n" + buildRagContext(request, userId) + "\n\n" + buildConversationPrompt(request.getMessages());
-            return chatModel.stream(finalPrompt)
+            LocalDateTime askedAt = LocalDateTime.now();
+            String finalPrompt = buildPrompt(request, userId);
+            Flux<String> deltas = chatModel.stream(finalPrompt)
                     .map(chunk -> chunk != null ? chunk : "")
                     .filter(content -> !content.isEmpty());
+            if (request.getConversationId() == null) {
+                return deltas;
+            }
+            return Flux.defer(() -> {
+                StringBuilder reply = new StringBuilder();
+                // 上游在HTTP客户端线程上完成，记录会话（写入队列满时会同步写库）切换到流式生产者线程执行
+                return deltas
+                        .doOnNext(reply::append)
+                        .concatWith(Mono.<String>fromRunnable(() -> appendTurn(request, userId, askedAt, reply.toString()))
+                                .subscribeOn(chatStreamScheduler));
+            });
         } catch (Exception e) {
             log.error("Stream chat request failed for user {}: {}", userId, e.getMessage(), e);
             return Flux.error(new RuntimeException("流式对话请求失败: " + e.getMessage()));
         }
     }
 
+    private String buildPrompt(ChatRequest request, String userId) {
+        List<ChatRequest.ChatMessage> messages = conversationMessages(request, userId);
+        return buildSystemPrompt(request) + "\n\n" + buildRagContext(messages, userId) + "\n\n" + buildConversationPrompt(messages);
+    }
+
+    /**
+     * 无会话ID时为请求中的完整历史；有会话ID时为服务端保存的历史窗口加上本轮的用户消息
+     */
+    private List<ChatRequest.ChatMessage> conversationMessages(ChatRequest request, String userId) {
+        if (request.getConversationId() == null) {
+            return request.getMessages();
+        }
+        List<ConversationMessage> history = conversationService.getHistory(request.getConversationId(), userId);
+        ChatRequest.ChatMessage question = latestUserMessage(request);
+        List<ChatRequest.ChatMessage> messages = new ArrayList<>(history.size() + 1);
+        for (ConversationMessage m : history) {
+            ChatRequest.ChatMessage msg = new ChatRequest.ChatMessage();
+            msg.setRole(m.getRole());
+            msg.setContent(m.getContent());
+            messages.add(msg);
+        }
+        messages.add(question);
+        return messages;
+    }
+
+    /**
+     * 带会话ID时历史以服务端为准：仍附带完整历史的旧客户端、客户端伪造的 assistant/system 消息都不采用，只取最后一条用户消息
+     */
+    private static ChatRequest.ChatMessage latestUserMessage(ChatRequest request) {
+        List<ChatRequest.ChatMessage> messages = request.getMessages();
+        ChatRequest.ChatMessage last = messages.get(messages.size() - 1);
+        if (!"user".equals(last.getRole())) {
+            throw new IllegalArgumentException("带会话ID时最后一条消息必须是用户消息");
+        }
+        return last;
+    }
+
+    private void appendTurn(ChatRequest request, String userId, LocalDateTime askedAt, String reply) {
+        if (request.getConversationId() == null) {
+            return;
+        }
+        List<ConversationMessage> turn = new ArrayList<>(2);
+        turn.add(ConversationMessage.builder()
+                .conversationId(request.getConversationId())
+                .role("user")
+                .content(latestUserMessage(request).getContent())
+                .createdAt(askedAt)
+                .build());
+        turn.add(ConversationMessage.builder()
+                .conversationId(request.getConversationId())
+                .role("assistant")
+                .content(reply)
+                .createdAt(LocalDateTime.now())
+                .build());
+        try {
+            conversationService.appendTurn(request.getConversationId(), userId, turn);
+        } catch (Exception e) {
+            log.warn("会话记录失败 conversationId={}: {}", request.getConversationId(), e.getMessage());
+        }
+    }
+
     private int estimateTokens(String text) {
         return text != null ? (text.length() / 4) : 0;
     }
@@ -83,10 +176,9 @@ public class ChatServiceImpl implements ChatService {
                 + "\n- 交互方式：若问题含糊，请用 1-2 句澄清提问再继续。";
     }
 
-    private String buildRagContext(ChatRequest request, String userId) {
+    private String buildRagContext(List<ChatRequest.ChatMessage> messages, String userId) {
         try {
             // 取用户最后一条消息作为查询意图
-            List<ChatRequest.ChatMessage> messages = request.getMessages();
             if (messages == null || messages.isEmpty()) return "";
             String lastUser = null;
             for (int i = messages.size() - 1; i >= 0; i--) {
@@ -114,7 +206,7 @@ public class ChatServiceImpl implements ChatService {
         if (messages == null || messages.isEmpty()) {
             return "";
         }
-        int fromIndex = Math.max(0, messages.size() - 20);
+        int fromIndex = Math.max(0, messages.size() - Math.max(1, chatConfig.getConversation().getHistoryWindow()));
         StringBuilder sb = new StringBuilder();
         sb.append("对话历史（按时间顺序）：\n");
         for (int i = fromIndex; i < messages.size(); i++) {
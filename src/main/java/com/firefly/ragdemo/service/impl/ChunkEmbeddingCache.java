@@ -0,0 +1,129 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.EmbeddingCacheEntry;
+import com.firefly.ragdemo.mapper.EmbeddingCacheMapper;
+import com.firefly.ragdemo.service.EmbeddingService;
+import com.firefly.ragdemo.util.CacheKeys;
+import com.firefly.ragdemo.util.VectorUtils;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 按内容寻址的分块向量缓存（embedding_cache 表）。
+ * 键为 SHA-256(模型名 + 分块文本)，同一课程资料被多人上传或重复上传时直接复用已有向量。
+ */
+@Component
+@Slf4j
+public class ChunkEmbeddingCache {
+
+    // IN 列表的单批上限
+    private static final int LOOKUP_BATCH = 500;
+
+    private final EmbeddingCacheMapper embeddingCacheMapper;
+    private final EmbeddingService embeddingService;
+    private final RagConfig ragConfig;
+    private final String model;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ChunkEmbeddingCache(EmbeddingCacheMapper embeddingCacheMapper,
+                               EmbeddingService embeddingService,
+                               RagConfig ragConfig,
+                               MeterRegistry meterRegistry,
+                               @Value("${spring.ai.openai.embedding.options.model:text-embedding-3-small}") String model) {
+        this.embeddingCacheMapper = embeddingCacheMapper;
+        this.embeddingService = embeddingService;
+        this.ragConfig = ragConfig;
+        this.model = model;
+        this.hits = Counter.builder("rag.chunk.embedding.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("rag.chunk.embedding.cache").tag("result", "miss").register(meterRegistry);
+    }
+
+    /**
+     * 与 EmbeddingService.embedBatchVectors 等价，结果与 texts 一一对应；未命中的文本去重后再请求embedding
+     */
+    public float[][] embedAll(List<String> texts, String fileId) {
+        if (!ragConfig.getChunkCache().isEnabled() || texts.isEmpty()) {
+            return embeddingService.embedBatchVectors(texts);
+        }
+        List<String> hashes = new ArrayList<>(texts.size());
+        for (String t : texts) {
+            hashes.add(hash(t));
+        }
+
+        Map<String, float[]> known = lookup(hashes);
+        int hitCount = 0;
+        // 未命中的 hash -> 文本，同一文件内的重复分块只请求一次
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < texts.size(); i++) {
+            if (known.containsKey(hashes.get(i))) {
+                hitCount++;
+            } else {
+                missing.putIfAbsent(hashes.get(i), texts.get(i));
+            }
+        }
+
+        if (!missing.isEmpty()) {
+            List<String> missHashes = new ArrayList<>(missing.keySet());
+            float[][] fresh = embeddingService.embedBatchVectors(new ArrayList<>(missing.values()));
+            List<EmbeddingCacheEntry> entries = new ArrayList<>(fresh.length);
+            LocalDateTime now = LocalDateTime.now();
+            for (int i = 0; i < missHashes.size(); i++) {
+                known.put(missHashes.get(i), fresh[i]);
+                entries.add(EmbeddingCacheEntry.builder()
+                        .contentHash(missHashes.get(i))
+                        .model(model)
+                        .embedding(fresh[i])
+                        .createdAt(now)
+                        .build());
+            }
+            store(entries);
+        }
+
+        hits.increment(hitCount);
+        misses.increment(texts.size() - hitCount);
+        log.info("分块向量缓存命中 {}/{} ({}%)，实际请求embedding {} 条 (fileId={})",
+                hitCount, texts.size(), hitCount * 100 / texts.size(), missing.size(), fileId);
+
+        float[][] result = new float[texts.size()][];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = known.get(hashes.get(i));
+        }
+        return result;
+    }
+
+    private Map<String, float[]> lookup(List<String> hashes) {
+        Map<String, float[]> found = new HashMap<>();
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(hashes));
+        for (int from = 0; from < distinct.size(); from += LOOKUP_BATCH) {
+            List<String> batch = distinct.subList(from, Math.min(distinct.size(), from + LOOKUP_BATCH));
+            for (EmbeddingCacheEntry e : embeddingCacheMapper.findByHashes(batch)) {
+                found.put(e.getContentHash(), e.getEmbedding() != null
+                        ? e.getEmbedding() : VectorUtils.parseJsonArray(e.getEmbeddingJson()));
+            }
+        }
+        return found;
+    }
+
+    private void store(List<EmbeddingCacheEntry> entries) {
+        for (int from = 0; from < entries.size(); from += LOOKUP_BATCH) {
+            embeddingCacheMapper.insertBatch(entries.subList(from, Math.min(entries.size(), from + LOOKUP_BATCH)));
+        }
+    }
+
+    private String hash(String text) {
+        return CacheKeys.sha256Hex(model, text);
+    }
+}
@@ -0,0 +1,386 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.ChatConfig;
+import com.firefly.ragdemo.entity.Conversation;
+import com.firefly.ragdemo.entity.ConversationMessage;
+import com.firefly.ragdemo.mapper.ConversationMapper;
+import com.firefly.ragdemo.service.ConversationService;
+import com.firefly.ragdemo.util.IdGenerator;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.security.access.AccessDeniedException;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 服务端保存的会话历史。每个会话在内存中只保留最近 history-window 条消息，
+ * 会话数受 cache-size 限制，窗口在 cache-ttl 后重新从数据库读取，淘汰后再次使用时才读取。
+ * 新消息先写入内存窗口并进入有界队列，由 conversation-writer 线程按批写库；队列满时在调用线程直接写库，
+ * 因此调用方需在可以阻塞的线程上调用 appendTurn。
+ * 多节点：每批消息写库后对Redis中该会话的版本号 INCR，各节点使用缓存的窗口前比对版本号，
+ * 落后（其它节点追加过消息）时重新从数据库读取；本节点尚未写库的消息在重新读取时合并进窗口。
+ * Redis不可用时退避，期间按单节点处理。
+ * 写库失败时按会话重试，仍失败的消息被丢弃，同时丢弃本节点的窗口，下次读取时按数据库重新加载，窗口与数据库保持一致。
+ */
+@Service
+@Slf4j
+public class ConversationServiceImpl implements ConversationService {
+
+    private static final String VERSION_PREFIX = "rag:conv:ver:";
+    private static final long REDIS_BACKOFF_MS = 30_000;
+    private static final int MAX_WRITE_ATTEMPTS = 3;
+    private static final long WRITE_RETRY_DELAY_MS = 500;
+
+    private final ConversationMapper conversationMapper;
+    private final ChatConfig.Conversation config;
+    private final StringRedisTemplate redisTemplate;
+    private final Cache<String, Window> windows;
+    private final BlockingQueue<ConversationMessage> writeQueue;
+    // 已进入窗口但尚未写库的消息，从数据库重新读取窗口时合并
+    private final Map<String, List<ConversationMessage>> unflushed = new ConcurrentHashMap<>();
+    // 写库与读取窗口互斥，读取时不会漏掉刚写入、或重复刚写入的消息
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final Counter syncWrites;
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile long redisDisabledUntil;
+
+    public ConversationServiceImpl(ConversationMapper conversationMapper,
+                                   ChatConfig chatConfig,
+                                   ObjectProvider<StringRedisTemplate> redisTemplate,
+                                   MeterRegistry meterRegistry) {
+        this.conversationMapper = conversationMapper;
+        this.config = chatConfig.getConversation();
+        this.redisTemplate = redisTemplate.getIfAvailable();
+        this.windows = Caffeine.newBuilder()
+                .maximumSize(config.getCacheSize())
+                .expireAfterWrite(config.getCacheTtl())
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, windows, "conversation_window");
+        this.writeQueue = new ArrayBlockingQueue<>(Math.max(1, config.getWriteQueueCapacity()));
+        Gauge.builder("rag.conversation.write.queue.depth", writeQueue, BlockingQueue::size)
+                .description("等待写库的会话消息数")
+                .register(meterRegistry);
+        this.syncWrites = Counter.builder("rag.conversation.write.sync")
+                .description("写入队列已满、在调用线程直接写库的会话消息数")
+                .register(meterRegistry);
+        this.writer = new Thread(this::writeLoop, "conversation-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    @Override
+    public Conversation createConversation(String userId) {
+        LocalDateTime now = LocalDateTime.now();
+        Conversation conversation = Conversation.builder()
+                .id(IdGenerator.newUuid())
+                .userId(userId)
+                .createdAt(now)
+                .updatedAt(now)
+                .build();
+        // 同步写入：之后异步写入的消息依赖该行（外键）
+        conversationMapper.insert(conversation);
+        windows.put(conversation.getId(), new Window(userId, List.of(), 0));
+        return conversation;
+    }
+
+    @Override
+    public List<ConversationMessage> getHistory(String conversationId, String userId) {
+        return window(conversationId, userId).snapshot();
+    }
+
+    @Override
+    public void appendTurn(String conversationId, String userId, List<ConversationMessage> messages) {
+        if (messages == null || messages.isEmpty()) {
+            return;
+        }
+        Window window = window(conversationId, userId);
+        unflushed.compute(conversationId, (k, pending) -> {
+            List<ConversationMessage> list = pending == null ? new ArrayList<>() : pending;
+            synchronized (list) {
+                list.addAll(messages);
+            }
+            return list;
+        });
+        window.append(messages, config.getHistoryWindow());
+        List<ConversationMessage> rejected = new ArrayList<>();
+        for (ConversationMessage m : messages) {
+            if (closed || !writeQueue.offer(m)) {
+                rejected.add(m);
+            }
+        }
+        if (!rejected.isEmpty()) {
+            log.warn("会话消息写入队列已满，直接写库: conversationId={}, count={}", conversationId, rejected.size());
+            syncWrites.increment(rejected.size());
+            write(rejected);
+        }
+    }
+
+    private Window window(String conversationId, String userId) {
+        Long version = currentVersion(conversationId);
+        Window window = windows.get(conversationId, id -> load(id, version));
+        if (window != null && version != null && window.version() != version) {
+            // 其它节点追加过消息：丢弃本地窗口，从数据库重新读取
+            windows.asMap().remove(conversationId, window);
+            window = windows.get(conversationId, id -> load(id, version));
+        }
+        if (window == null) {
+            throw new IllegalArgumentException("会话不存在");
+        }
+        if (!window.userId.equals(userId)) {
+            throw new AccessDeniedException("无权访问他人会话");
+        }
+        return window;
+    }
+
+    /**
+     * 缓存未命中时读取会话与最近的消息，并合并本节点尚未写库的消息；会话不存在时返回null，不缓存
+     */
+    private Window load(String conversationId, Long version) {
+        flushLock.lock();
+        try {
+            return conversationMapper.findById(conversationId)
+                    .map(c -> {
+                        List<ConversationMessage> recent = new ArrayList<>(
+                                conversationMapper.findRecentMessages(conversationId, Math.max(1, config.getHistoryWindow())));
+                        Collections.reverse(recent);
+                        Window window = new Window(c.getUserId(), recent, version == null ? 0 : version);
+                        List<ConversationMessage> pending = unflushed.get(conversationId);
+                        if (pending != null) {
+                            synchronized (pending) {
+                                window.append(new ArrayList<>(pending), config.getHistoryWindow());
+                            }
+                        }
+                        return window;
+                    })
+                    .orElse(null);
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 取到第一条消息后在 flush-interval-ms 内继续攒批，至多 write-batch-size 条一次写入。关闭后写完队列中剩余的消息再退出
+     */
+    private void writeLoop() {
+        int batchSize = Math.max(1, config.getWriteBatchSize());
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, config.getFlushIntervalMs()));
+        List<ConversationMessage> batch = new ArrayList<>(batchSize);
+        while (!closed || !writeQueue.isEmpty()) {
+            try {
+                ConversationMessage first = writeQueue.poll(intervalNanos, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + intervalNanos;
+                while (batch.size() < batchSize && !closed) {
+                    writeQueue.drainTo(batch, batchSize - batch.size());
+                    long remaining = deadline - System.nanoTime();
+                    if (batch.size() >= batchSize || remaining <= 0) {
+                        break;
+                    }
+                    ConversationMessage next = writeQueue.poll(remaining, TimeUnit.NANOSECONDS);
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                write(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                log.warn("会话写入线程被中断，未写入{}条消息", batch.size() + writeQueue.size());
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * 一条多行INSERT写入整批消息并更新会话的 updated_at；失败时按会话分别重试，只丢弃仍然出错的会话的消息
+     */
+    private void write(List<ConversationMessage> batch) {
+        Map<String, List<ConversationMessage>> byConversation = new LinkedHashMap<>();
+        for (ConversationMessage m : batch) {
+            byConversation.computeIfAbsent(m.getConversationId(), k -> new ArrayList<>()).add(m);
+        }
+        try {
+            insert(batch, byConversation.keySet());
+        } catch (Exception e) {
+            log.warn("会话消息批量写入失败，按会话分别重试: {}", e.getMessage());
+            for (Map.Entry<String, List<ConversationMessage>> entry : byConversation.entrySet()) {
+                writeWithRetry(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 重试 MAX_WRITE_ATTEMPTS 次；仍失败（如会话已被删除）时丢弃这些消息与本节点的窗口。
+     * 其它节点的窗口从未包含这些消息，版本号无需变化
+     */
+    private void writeWithRetry(String conversationId, List<ConversationMessage> messages) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                insert(messages, Set.of(conversationId));
+                return;
+            } catch (Exception e) {
+                if (attempt >= MAX_WRITE_ATTEMPTS) {
+                    log.error("会话消息写入失败，丢弃{}条并重新加载窗口: conversationId={}, {}",
+                            messages.size(), conversationId, e.getMessage(), e);
+                    break;
+                }
+                try {
+                    Thread.sleep(WRITE_RETRY_DELAY_MS * attempt);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        flushed(messages);
+        windows.invalidate(conversationId);
+    }
+
+    private void insert(List<ConversationMessage> messages, Set<String> conversationIds) {
+        flushLock.lock();
+        try {
+            conversationMapper.insertMessages(messages);
+            conversationMapper.touch(new LinkedHashSet<>(conversationIds));
+            flushed(messages);
+        } finally {
+            flushLock.unlock();
+        }
+        for (String id : conversationIds) {
+            bumpVersion(id);
+        }
+    }
+
+    /**
+     * 消息已写库（或已放弃写入），不再需要在重新读取窗口时合并
+     */
+    private void flushed(List<ConversationMessage> messages) {
+        Set<ConversationMessage> done = Collections.newSetFromMap(new IdentityHashMap<>());
+        done.addAll(messages);
+        for (ConversationMessage m : messages) {
+            unflushed.computeIfPresent(m.getConversationId(), (k, pending) -> {
+                synchronized (pending) {
+                    pending.removeIf(done::contains);
+                }
+                return pending.isEmpty() ? null : pending;
+            });
+        }
+    }
+
+    private Long currentVersion(String conversationId) {
+        if (!redisUsable()) return null;
+        try {
+            String value = redisTemplate.opsForValue().get(VERSION_PREFIX + conversationId);
+            return value == null ? 0L : Long.parseLong(value);
+        } catch (Exception e) {
+            redisFailed(e);
+            return null;
+        }
+    }
+
+    /**
+     * 消息写库后调用。本地窗口的版本号恰好落后1时说明期间没有其它节点写入，窗口仍是最新的
+     */
+    private void bumpVersion(String conversationId) {
+        if (!redisUsable()) return;
+        Long next;
+        try {
+            next = redisTemplate.opsForValue().increment(VERSION_PREFIX + conversationId);
+            redisTemplate.expire(VERSION_PREFIX + conversationId, config.getCacheTtl().multipliedBy(2));
+        } catch (Exception e) {
+            redisFailed(e);
+            return;
+        }
+        Window window = windows.getIfPresent(conversationId);
+        if (next != null && window != null) {
+            window.advance(next);
+        }
+    }
+
+    private boolean redisUsable() {
+        return redisTemplate != null && System.currentTimeMillis() >= redisDisabledUntil;
+    }
+
+    private void redisFailed(Exception e) {
+        redisDisabledUntil = System.currentTimeMillis() + REDIS_BACKOFF_MS;
+        log.warn("会话版本号不可用，{}秒内不做跨节点一致性检查: {}", REDIS_BACKOFF_MS / 1000, e.getMessage());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        closed = true;
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (writer.isAlive()) {
+            log.warn("会话写入线程未在10秒内结束，剩余{}条消息未写入", writeQueue.size());
+        }
+    }
+
+    /**
+     * 单个会话的历史窗口，至多保留 history-window 条最近的消息；version 为窗口对应的Redis版本号
+     */
+    private static final class Window {
+        final String userId;
+        private final ArrayDeque<ConversationMessage> messages;
+        private long version;
+
+        Window(String userId, List<ConversationMessage> recent, long version) {
+            this.userId = userId;
+            this.messages = new ArrayDeque<>(recent);
+            this.version = version;
+        }
+
+        synchronized List<ConversationMessage> snapshot() {
+            return new ArrayList<>(messages);
+        }
+
+        synchronized void append(List<ConversationMessage> added, int limit) {
+            messages.addAll(added);
+            while (messages.size() > Math.max(1, limit)) {
+                messages.pollFirst();
+            }
+        }
+
+        synchronized long version() {
+            return version;
+        }
+
+        synchronized void advance(long next) {
+            if (version == next - 1) {
+                version = next;
+            }
+        }
+    }
+}
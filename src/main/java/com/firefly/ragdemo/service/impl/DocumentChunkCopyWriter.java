@@ -0,0 +1,191 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.util.FloatArrayCodec;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 大文件分块的批量写入：以二进制 COPY 直接流入 document_chunks，按批次提交数据而非拼接超长的多行 INSERT，
+ * 没有绑定参数个数上限，也不需要服务端解析SQL与文本格式的 jsonb/vector。
+ * jsonb、vector、tsvector 按各自的二进制接收格式编码，写入结果与 DocumentChunkMapper.insertBatch 一致。
+ * 在Spring事务内使用事务绑定的连接，与MyBatis的写入处于同一事务。
+ */
+@Component
+@RequiredArgsConstructor
+@Slf4j
+public class DocumentChunkCopyWriter {
+
+    private static final byte[] COPY_SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    // jsonb 二进制格式的版本号
+    private static final int JSONB_VERSION = 1;
+    // timestamp 的二进制格式为自 2000-01-01 起的微秒数
+    private static final LocalDateTime PG_EPOCH = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private final DataSource dataSource;
+    private final RagConfig ragConfig;
+
+    public int write(List<DocumentChunk> chunks, boolean writeJson, boolean writeVector, boolean writeLexemes) {
+        RagConfig.Storage storage = ragConfig.getStorage();
+        Connection conn = DataSourceUtils.getConnection(dataSource);
+        try {
+            return copy(conn, chunks, storage.isFloat16(), writeJson, writeVector, writeLexemes, storage.getCopyBatchSize());
+        } catch (SQLException | IOException e) {
+            throw new IllegalStateException("COPY写入分块失败: " + e.getMessage(), e);
+        } finally {
+            DataSourceUtils.releaseConnection(conn, dataSource);
+        }
+    }
+
+    /**
+     * 每 batchSize 行一次 COPY，返回写入的行数
+     */
+    public static int copy(Connection conn, List<DocumentChunk> chunks, boolean half,
+                           boolean writeJson, boolean writeVector, boolean writeLexemes,
+                           int batchSize) throws SQLException, IOException {
+        PGConnection pg = conn.unwrap(PGConnection.class);
+        String sql = copySql(writeJson, writeVector, writeLexemes);
+        int step = Math.max(1, batchSize);
+        long inserted = 0;
+        for (int from = 0; from < chunks.size(); from += step) {
+            List<DocumentChunk> batch = chunks.subList(from, Math.min(chunks.size(), from + step));
+            PGCopyOutputStream copy = new PGCopyOutputStream(pg, sql);
+            try {
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(copy, 1 << 16));
+                writeRows(out, batch, half, writeJson, writeVector, writeLexemes);
+                out.flush();
+                inserted += copy.endCopy();
+            } finally {
+                // 编码或传输失败时中止本次COPY，连接可继续使用
+                if (copy.isActive()) copy.cancelCopy();
+            }
+        }
+        return (int) inserted;
+    }
+
+    private static String copySql(boolean writeJson, boolean writeVector, boolean writeLexemes) {
+        StringBuilder columns = new StringBuilder("id, user_id, file_id, chunk_index, content, content_hash, embedding_bin, ");
+        if (writeJson) columns.append("embedding, ");
+        if (writeVector) columns.append("embedding_vec, ");
+        if (writeLexemes) columns.append("content_tsv, ");
+        columns.append("created_at");
+        return "COPY document_chunks (" + columns + ") FROM STDIN (FORMAT binary)";
+    }
+
+    private static void writeRows(DataOutputStream out, List<DocumentChunk> rows, boolean half,
+                                  boolean writeJson, boolean writeVector, boolean writeLexemes) throws IOException {
+        short fields = (short) (8 + (writeJson ? 1 : 0) + (writeVector ? 1 : 0) + (writeLexemes ? 1 : 0));
+        out.write(COPY_SIGNATURE);
+        out.writeInt(0);
+        out.writeInt(0);
+        for (DocumentChunk c : rows) {
+            out.writeShort(fields);
+            writeText(out, c.getId());
+            writeText(out, c.getUserId());
+            writeText(out, c.getFileId());
+            if (c.getChunkIndex() == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(Integer.BYTES);
+                out.writeInt(c.getChunkIndex());
+            }
+            writeText(out, c.getContent());
+            writeText(out, c.getContentHash());
+            writeBytes(out, c.getEmbedding() == null ? null : FloatArrayCodec.encode(c.getEmbedding(), half));
+            if (writeJson) writeJsonb(out, c.getEmbeddingJson());
+            if (writeVector) writeVector(out, c.getEmbedding());
+            if (writeLexemes) writeTsvector(out, c.getLexemes());
+            if (c.getCreatedAt() == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(Long.BYTES);
+                out.writeLong(ChronoUnit.MICROS.between(PG_EPOCH, c.getCreatedAt()));
+            }
+        }
+        out.writeShort(-1);
+    }
+
+    private static void writeText(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    /**
+     * jsonb：版本号 + JSON文本
+     */
+    private static void writeJsonb(DataOutputStream out, String json) throws IOException {
+        if (json == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] text = json.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(1 + text.length);
+        out.writeByte(JSONB_VERSION);
+        out.write(text);
+    }
+
+    /**
+     * pgvector：int16 维度 + int16 保留位 + float4 数组
+     */
+    private static void writeVector(DataOutputStream out, float[] v) throws IOException {
+        if (v == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(4 + v.length * Float.BYTES);
+        out.writeShort(v.length);
+        out.writeShort(0);
+        for (float x : v) out.writeFloat(x);
+    }
+
+    /**
+     * tsvector：int32 词位数，每个词位为以0结尾的字符串 + int16 位置数（此处为0）。
+     * 与 array_to_tsvector 相同，不带位置；排序与去重由服务端完成
+     */
+    private static void writeTsvector(DataOutputStream out, String lexemes) throws IOException {
+        if (lexemes == null) {
+            out.writeInt(-1);
+            return;
+        }
+        List<byte[]> words = new ArrayList<>();
+        int size = Integer.BYTES;
+        for (String w : lexemes.split(" ")) {
+            if (w.isEmpty()) continue;
+            byte[] b = w.getBytes(StandardCharsets.UTF_8);
+            words.add(b);
+            size += b.length + 1 + Short.BYTES;
+        }
+        out.writeInt(size);
+        out.writeInt(words.size());
+        for (byte[] b : words) {
+            out.write(b);
+            out.writeByte(0);
+            out.writeShort(0);
+        }
+    }
+}
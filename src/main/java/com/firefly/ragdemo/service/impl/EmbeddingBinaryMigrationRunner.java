@@ -0,0 +1,58 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.DocumentChunkMapper;
+import com.firefly.ragdemo.util.VectorUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 将存量 embedding(JSONB) 转为 embedding_bin。
+ * 在后台线程分批执行，每批独立提交；转换期间读取方对未迁移的行仍回退解析JSONB。
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.rag.storage", name = "migrate-on-startup", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class EmbeddingBinaryMigrationRunner implements ApplicationRunner {
+
+    private final DocumentChunkMapper documentChunkMapper;
+    private final RagConfig ragConfig;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread t = new Thread(this::migrate, "embedding-bin-migration");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void migrate() {
+        RagConfig.Storage cfg = ragConfig.getStorage();
+        int batchSize = Math.max(1, cfg.getMigrationBatchSize());
+        long total = 0;
+        long start = System.currentTimeMillis();
+        log.info("开始转换embedding_bin, batchSize={}, 清空JSONB={}", batchSize, cfg.isDropJsonAfterMigration());
+        try {
+            while (true) {
+                List<DocumentChunk> rows = documentChunkMapper.findChunksWithoutBinary(batchSize);
+                if (rows.isEmpty()) break;
+                for (DocumentChunk c : rows) {
+                    c.setEmbedding(VectorUtils.parseJsonArray(c.getEmbeddingJson()));
+                }
+                documentChunkMapper.updateEmbeddingBinBatch(rows, cfg.isDropJsonAfterMigration());
+                total += rows.size();
+                log.debug("已转换embedding_bin: {}", total);
+            }
+            log.info("embedding_bin转换完成: 共{}行, 耗时{}ms", total, System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            log.error("embedding_bin转换失败，已转换{}行", total, e);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.util.TokenBucket;
+import com.firefly.ragdemo.util.VirtualThreads;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * 全节点共享的embedding请求调度：所有embedding请求（检索查询、文件索引）都经由这里发出。
+ * 在途请求数受 max-concurrent-batches 限制，每分钟请求数/token数受令牌桶限制；
+ * 查询请求总是先于排队中的索引请求发出，且索引请求不能占用为查询保留的并发数与配额。
+ * JDK支持时请求在虚拟线程上执行。
+ */
+@Component
+@Slf4j
+public class EmbeddingRequestScheduler {
+
+    public enum Priority {
+        QUERY, INDEX
+    }
+
+    private final RagConfig.Embedding config;
+    private final TokenBucket requestBucket;
+    private final TokenBucket tokenBucket;
+    private final ExecutorService executor;
+    private final Thread dispatcher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final PriorityQueue<Task<?>> queue = new PriorityQueue<>(
+            Comparator.<Task<?>, Priority>comparing(t -> t.priority).thenComparingLong(t -> t.seq));
+    private final AtomicLong seq = new AtomicLong();
+    private final Map<Priority, AtomicInteger> queued = new EnumMap<>(Priority.class);
+    private final Map<Priority, Timer> waitTimers = new EnumMap<>(Priority.class);
+    private volatile int inFlight;
+    private volatile boolean closed;
+
+    public EmbeddingRequestScheduler(RagConfig ragConfig, MeterRegistry meterRegistry) {
+        this.config = ragConfig.getEmbedding();
+        this.requestBucket = config.getRequestsPerMinute() > 0 ? new TokenBucket(config.getRequestsPerMinute()) : null;
+        this.tokenBucket = config.getTokensPerMinute() > 0 ? new TokenBucket(config.getTokensPerMinute()) : null;
+        this.executor = newExecutor(config.isVirtualThreads());
+        for (Priority p : Priority.values()) {
+            AtomicInteger depth = new AtomicInteger();
+            queued.put(p, depth);
+            Gauge.builder("rag.embedding.queue.depth", depth, AtomicInteger::get)
+                    .tag("priority", p.name().toLowerCase())
+                    .description("等待发出的embedding请求数")
+                    .register(meterRegistry);
+            waitTimers.put(p, Timer.builder("rag.embedding.queue.wait")
+                    .tag("priority", p.name().toLowerCase())
+                    .description("embedding请求在调度队列中的等待时间")
+                    .register(meterRegistry));
+        }
+        Gauge.builder("rag.embedding.inflight", this, s -> s.inFlight)
+                .description("正在进行的embedding请求数")
+                .register(meterRegistry);
+        this.dispatcher = new Thread(this::dispatchLoop, "embedding-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    /**
+     * 排队发出一次embedding请求，tokens 为该请求的估算token数。
+     * 取消返回的 future 时，尚未发出的请求从队列中移除，不再占用并发数与配额
+     */
+    public <T> CompletableFuture<T> submit(Priority priority, int tokens, Supplier<T> call) {
+        Task<T> task = new Task<>(priority, tokens, call, seq.incrementAndGet());
+        lock.lock();
+        try {
+            if (closed) {
+                task.future.completeExceptionally(new CancellationException("embedding调度已关闭"));
+                return task.future;
+            }
+            queue.add(task);
+            queued.get(priority).incrementAndGet();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        task.future.whenComplete((r, e) -> {
+            if (task.future.isCancelled()) {
+                withdraw(task);
+            }
+        });
+        return task.future;
+    }
+
+    private void withdraw(Task<?> task) {
+        lock.lock();
+        try {
+            if (queue.remove(task)) {
+                queued.get(task.priority).decrementAndGet();
+                changed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void dispatchLoop() {
+        lock.lock();
+        try {
+            while (!closed) {
+                Task<?> head = queue.peek();
+                if (head == null) {
+                    changed.await();
+                    continue;
+                }
+                boolean query = head.priority == Priority.QUERY;
+                int maxConcurrent = Math.max(1, config.getMaxConcurrentBatches());
+                int slots = query ? maxConcurrent : Math.max(1, maxConcurrent - config.getQueryReservedSlots());
+                if (inFlight >= slots) {
+                    // 请求完成或有查询插队时被唤醒
+                    changed.await();
+                    continue;
+                }
+                long waitNanos = reserveQuota(head.tokens, query);
+                if (waitNanos > 0) {
+                    changed.awaitNanos(waitNanos);
+                    continue;
+                }
+                queue.poll();
+                queued.get(head.priority).decrementAndGet();
+                inFlight++;
+                waitTimers.get(head.priority).record(System.nanoTime() - head.enqueuedAt, TimeUnit.NANOSECONDS);
+                executor.execute(() -> run(head));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 两个令牌桶都满足时一并扣减并返回0，否则返回需要等待的纳秒数。索引请求需为查询留出一部分配额
+     */
+    private long reserveQuota(int tokens, boolean query) {
+        double ratio = query ? 0 : config.getQueryReserveRatio();
+        long wait = 0;
+        if (requestBucket != null) {
+            wait = Math.max(wait, requestBucket.nanosUntil(1, requestBucket.capacity() * ratio));
+        }
+        if (tokenBucket != null) {
+            wait = Math.max(wait, tokenBucket.nanosUntil(tokens, tokenBucket.capacity() * ratio));
+        }
+        if (wait > 0) return wait;
+        if (requestBucket != null) requestBucket.take(1);
+        if (tokenBucket != null) tokenBucket.take(tokens);
+        return 0;
+    }
+
+    private <T> void run(Task<T> task) {
+        try {
+            // 出队后、执行前被取消
+            if (task.future.isDone()) return;
+            task.future.complete(task.call.get());
+        } catch (Throwable e) {
+            task.future.completeExceptionally(e);
+        } finally {
+            lock.lock();
+            try {
+                inFlight--;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static ExecutorService newExecutor(boolean virtualThreads) {
+        if (virtualThreads) {
+            ExecutorService virtual = VirtualThreads.newPerTaskExecutor();
+            if (virtual != null) {
+                log.info("embedding请求使用虚拟线程");
+                return virtual;
+            }
+            log.info("当前JDK不支持虚拟线程，embedding请求使用平台线程");
+        }
+        AtomicInteger seq = new AtomicInteger();
+        return Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "embedding-request-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        lock.lock();
+        try {
+            closed = true;
+            for (Task<?> t : queue) {
+                t.future.completeExceptionally(new CancellationException("embedding调度已关闭"));
+            }
+            queue.clear();
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        dispatcher.interrupt();
+        executor.shutdownNow();
+    }
+
+    private static final class Task<T> {
+        final Priority priority;
+        final int tokens;
+        final Supplier<T> call;
+        final long seq;
+        final long enqueuedAt = System.nanoTime();
+        final CompletableFuture<T> future = new CompletableFuture<>();
+
+        Task(Priority priority, int tokens, Supplier<T> call, long seq) {
+            this.priority = priority;
+            this.tokens = tokens;
+            this.call = call;
+            this.seq = seq;
+        }
+    }
+}
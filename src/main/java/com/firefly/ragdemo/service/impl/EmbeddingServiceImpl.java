@@ -1,43 +1,177 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.RagConfig;
 import com.firefly.ragdemo.service.EmbeddingService;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.openai.OpenAiEmbeddingModel;
+import org.springframework.ai.tokenizer.JTokkitTokenCountEstimator;
+import org.springframework.ai.tokenizer.TokenCountEstimator;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 @Service
-@RequiredArgsConstructor
 @Slf4j
 public class EmbeddingServiceImpl implements EmbeddingService {
 
     private final OpenAiEmbeddingModel embeddingModel;
+    private final QueryEmbeddingCache queryEmbeddingCache;
+    private final EmbeddingRequestScheduler scheduler;
+    private final RagConfig.Embedding config;
+    private final TokenCountEstimator tokenCountEstimator = new JTokkitTokenCountEstimator();
+
+    public EmbeddingServiceImpl(OpenAiEmbeddingModel embeddingModel,
+                                QueryEmbeddingCache queryEmbeddingCache,
+                                EmbeddingRequestScheduler scheduler,
+                                RagConfig ragConfig) {
+        this.embeddingModel = embeddingModel;
+        this.queryEmbeddingCache = queryEmbeddingCache;
+        this.scheduler = scheduler;
+        this.config = ragConfig.getEmbedding();
+    }
 
     @Override
-    public List<Double> embed(String text) {
+    public float[] embedVector(String text) {
+        return embedOne(text, EmbeddingRequestScheduler.Priority.INDEX);
+    }
+
+    @Override
+    public float[] embedQueryVector(String text) {
+        return queryEmbeddingCache.get(text, t -> embedOne(t, EmbeddingRequestScheduler.Priority.QUERY));
+    }
+
+    /**
+     * 按条数与token预算切成多个批次，每批一次请求，以索引优先级交给共享调度，
+     * 并发数与配额由 EmbeddingRequestScheduler 统一控制
+     */
+    @Override
+    public float[][] embedBatchVectors(List<String> texts) {
+        if (texts.isEmpty()) return new float[0][];
+        List<Batch> batches = pack(texts);
+        List<CompletableFuture<List<float[]>>> futures = new ArrayList<>(batches.size());
+        for (Batch batch : batches) {
+            futures.add(embedWithRetry(batch, EmbeddingRequestScheduler.Priority.INDEX));
+        }
+        float[][] result = new float[texts.size()][];
+        int n = 0;
         try {
-            float[] embedding = embeddingModel.embed(text);
-            return java.util.stream.IntStream.range(0, embedding.length)
-                    .mapToDouble(i -> embedding[i])
-                    .boxed()
-                    .collect(Collectors.toList());
-        } catch (Exception e) {
-            log.error("Embedding failed", e);
-            throw new RuntimeException("Embedding失败: " + e.getMessage());
+            for (CompletableFuture<List<float[]>> f : futures) {
+                for (float[] v : f.get()) {
+                    result[n++] = v;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            throw new RuntimeException("Embedding被中断");
+        } catch (ExecutionException e) {
+            futures.forEach(f -> f.cancel(true));
+            Throwable cause = e.getCause();
+            log.error("Embedding failed", cause);
+            throw new RuntimeException("Embedding失败: " + cause.getMessage());
         }
+        log.debug("批量Embedding完成: {} 条，{} 个请求", texts.size(), batches.size());
+        return result;
     }
 
-    @Override
-    public List<List<Double>> embedBatch(List<String> texts) {
-        List<List<Double>> result = new ArrayList<>();
+    List<Batch> pack(List<String> texts) {
+        List<Batch> batches = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int tokens = 0;
         for (String t : texts) {
-            result.add(embed(t));
+            int n = tokenCountEstimator.estimate(t);
+            if (!current.isEmpty() && (current.size() >= config.getBatchMaxInputs() || tokens + n > config.getBatchMaxTokens())) {
+                batches.add(new Batch(current, tokens));
+                current = new ArrayList<>();
+                tokens = 0;
+            }
+            current.add(t);
+            tokens += n;
+        }
+        if (!current.isEmpty()) batches.add(new Batch(current, tokens));
+        return batches;
+    }
+
+    /**
+     * 单条文本一次请求。检索查询以 QUERY 优先级发出，不排在索引批次之后；其它调用按 INDEX 排队，不占查询预留的并发与配额
+     */
+    private float[] embedOne(String text, EmbeddingRequestScheduler.Priority priority) {
+        Batch batch = new Batch(List.of(text), tokenCountEstimator.estimate(text));
+        try {
+            return embedWithRetry(batch, priority).join().get(0);
+        } catch (CompletionException e) {
+            log.error("Embedding failed", e.getCause());
+            throw new RuntimeException("Embedding失败: " + e.getCause().getMessage());
         }
+    }
+
+    /**
+     * 429时退避后重新排队，退避期间不占用并发数。
+     * 5xx等暂时性错误（TransientAiException）已由Spring AI的RetryTemplate重试（spring.ai.retry.*），这里不再重复重试。
+     * 取消返回的 future 时，排队中的请求从调度队列移除，退避中的重试不再发出
+     */
+    private CompletableFuture<List<float[]>> embedWithRetry(Batch batch, EmbeddingRequestScheduler.Priority priority) {
+        CompletableFuture<List<float[]>> result = new CompletableFuture<>();
+        attempt(result, batch, priority, 0, config.getRetryInitialBackoffMs());
         return result;
     }
-} 
\ No newline at end of file
+
+    private void attempt(CompletableFuture<List<float[]>> result, Batch batch,
+                         EmbeddingRequestScheduler.Priority priority, int attempt, long backoff) {
+        if (result.isDone()) return;
+        CompletableFuture<List<float[]>> request = scheduler.submit(priority, batch.tokens(), () -> call(batch.texts()));
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) request.cancel(false);
+        });
+        request.whenComplete((vectors, e) -> {
+            if (e == null) {
+                result.complete(vectors);
+                return;
+            }
+            if (result.isDone()) return;
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            if (attempt >= config.getMaxRetries() || !isRetryable(cause)) {
+                result.completeExceptionally(cause);
+                return;
+            }
+            long sleep = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            log.warn("Embedding请求被限流，{}ms后重试 ({}/{}): {}",
+                    sleep, attempt + 1, config.getMaxRetries(), cause.getMessage());
+            CompletableFuture.delayedExecutor(sleep, TimeUnit.MILLISECONDS)
+                    .execute(() -> attempt(result, batch, priority, attempt + 1,
+                            Math.min(backoff * 2, config.getRetryMaxBackoffMs())));
+        });
+    }
+
+    private List<float[]> call(List<String> batch) {
+        List<float[]> vectors = embeddingModel.embed(batch);
+        if (vectors.size() != batch.size()) {
+            throw new IllegalStateException("Embedding返回数量不一致: " + vectors.size() + " != " + batch.size());
+        }
+        return vectors;
+    }
+
+    /**
+     * 只重试限流：Spring AI 把 4xx 包装为 NonTransientAiException（RetryTemplate不重试），
+     * 原始HTTP异常由 AiRetryConfig 保留在 cause 中
+     */
+    private static boolean isRetryable(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause() == t ? null : t.getCause()) {
+            if (t instanceof HttpClientErrorException.TooManyRequests
+                    || t instanceof WebClientResponseException.TooManyRequests) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    record Batch(List<String> texts, int tokens) {}
+}
@@ -6,21 +6,26 @@ import com.firefly.ragdemo.entity.User;
 import com.firefly.ragdemo.mapper.UploadedFileMapper;
 import com.firefly.ragdemo.mapper.DocumentChunkMapper;
 import com.firefly.ragdemo.service.FileService;
-import com.firefly.ragdemo.service.RagIndexService;
+import com.firefly.ragdemo.service.VectorIndexService;
 import com.firefly.ragdemo.util.PageResult;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.access.AccessDeniedException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.*;
 
 @Service
@@ -29,8 +34,11 @@ import java.util.*;
 public class FileServiceImpl implements FileService {
 
     private final UploadedFileMapper uploadedFileMapper;
-    private final RagIndexService ragIndexService;
+    private final IndexJobQueue indexJobQueue;
     private final DocumentChunkMapper documentChunkMapper;
+    private final Optional<VectorIndexService> vectorIndexService;
+    private final RetrievalResultCache retrievalResultCache;
+    private final VectorIndexVersions vectorIndexVersions;
 
     @Value("${app.file.upload-dir:uploads}")
     private String uploadDir;
@@ -67,8 +75,9 @@ public class FileServiceImpl implements FileService {
                 .build();
 
         uploadedFileMapper.insert(uploadedFile);
+        uploadedFileMapper.addFileCount(user.getId(), 1);
 
-        processFileAfterCommit(uploadedFile.getId());
+        indexJobQueue.enqueue(uploadedFile.getId());
 
         return FileVO.builder()
                 .id(uploadedFile.getId())
@@ -91,7 +100,61 @@ public class FileServiceImpl implements FileService {
         long total = uploadedFileMapper.countByUserId(userId);
         int totalPages = (int) Math.ceil(total / (double) pageSize);
 
-        List<FileVO> items = new ArrayList<>();
+        return PageResult.<FileVO>builder()
+                .page(pageIndex)
+                .limit(pageSize)
+                .total(total)
+                .totalPages(totalPages)
+                .items(toFileVOs(files))
+                // 偏移分页的客户端也可以从这里切换到游标分页
+                .nextCursor(files.size() == pageSize ? encodeCursor(files.get(files.size() - 1)) : null)
+                .build();
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public PageResult<FileVO> getUserFilesByCursor(String userId, String cursor, int limit) {
+        int pageSize = Math.max(limit, 1);
+        LocalDateTime cursorTime = null;
+        String cursorId = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            String decoded;
+            try {
+                decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("无效的分页游标");
+            }
+            int sep = decoded.indexOf('|');
+            if (sep <= 0) {
+                throw new IllegalArgumentException("无效的分页游标");
+            }
+            try {
+                cursorTime = LocalDateTime.parse(decoded.substring(0, sep));
+            } catch (DateTimeParseException e) {
+                throw new IllegalArgumentException("无效的分页游标");
+            }
+            cursorId = decoded.substring(sep + 1);
+        }
+
+        // 多取一条判断是否还有下一页
+        List<UploadedFile> files = uploadedFileMapper.findByUserIdBefore(userId, cursorTime, cursorId, pageSize + 1);
+        boolean hasMore = files.size() > pageSize;
+        if (hasMore) {
+            files = files.subList(0, pageSize);
+        }
+        long total = uploadedFileMapper.countByUserId(userId);
+
+        return PageResult.<FileVO>builder()
+                .limit(pageSize)
+                .total(total)
+                .totalPages((int) Math.ceil(total / (double) pageSize))
+                .items(toFileVOs(files))
+                .nextCursor(hasMore ? encodeCursor(files.get(files.size() - 1)) : null)
+                .build();
+    }
+
+    private static List<FileVO> toFileVOs(List<UploadedFile> files) {
+        List<FileVO> items = new ArrayList<>(files.size());
         for (UploadedFile f : files) {
             items.add(FileVO.builder()
                     .id(f.getId())
@@ -102,14 +165,15 @@ public class FileServiceImpl implements FileService {
                     .status(f.getStatus())
                     .build());
         }
+        return items;
+    }
 
-        return PageResult.<FileVO>builder()
-                .page(pageIndex)
-                .limit(pageSize)
-                .total(total)
-                .totalPages(totalPages)
-                .items(items)
-                .build();
+    /**
+     * 游标为最后一条记录的 upload_time|id（Base64URL），客户端应视为不透明字符串；upload_time 在 schema.sql 中为 NOT NULL
+     */
+    private static String encodeCursor(UploadedFile last) {
+        String raw = last.getUploadTime() + "|" + last.getId();
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
     }
 
     @Override
@@ -134,9 +198,86 @@ public class FileServiceImpl implements FileService {
         try {
             Path p = Paths.get(file.getFilePath());
             Files.deleteIfExists(p);
+            Files.deleteIfExists(RagIndexServiceImpl.extractedTextPath(file.getFilePath()));
         } catch (Exception ignored) { }
         // 删除uploaded_files记录
-        uploadedFileMapper.deleteById(fileId);
+        if (uploadedFileMapper.deleteById(fileId) > 0) {
+            uploadedFileMapper.addFileCount(userId, -1);
+        }
+        removeFromVectorIndexAfterCommit(userId, fileId);
+    }
+
+    @Override
+    @Transactional
+    public FileVO replaceFile(String userId, String fileId, MultipartFile file) throws IOException {
+        validateFile(file);
+        UploadedFile existing = uploadedFileMapper.findById(fileId)
+                .orElseThrow(() -> new IllegalArgumentException("文件不存在"));
+        if (!Objects.equals(existing.getUserId(), userId)) {
+            throw new AccessDeniedException("无权替换他人文件");
+        }
+
+        Path uploadPath = Paths.get(uploadDir);
+        if (!Files.exists(uploadPath)) {
+            Files.createDirectories(uploadPath);
+        }
+        String extension = getFileExtension(file.getOriginalFilename());
+        Path filePath = uploadPath.resolve(UUID.randomUUID().toString() + "." + extension);
+        try {
+            Files.copy(file.getInputStream(), filePath, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(filePath);
+            throw e;
+        }
+
+        String oldPath = existing.getFilePath();
+        // 先登记清理，之后更新记录或入队失败回滚时删除新文件；提交后才删除旧文件
+        cleanUpAfterReplace(oldPath, filePath.toString());
+        existing.setFilename(file.getOriginalFilename());
+        existing.setFilePath(filePath.toString());
+        existing.setFileSize(file.getSize());
+        existing.setFileType(extension);
+        existing.setUploadTime(LocalDateTime.now());
+        existing.setStatus(UploadedFile.FileStatus.PROCESSING);
+        uploadedFileMapper.update(existing);
+
+        // 原有分块保留到索引任务比对时再增量更新，期间仍可被检索
+        indexJobQueue.enqueue(fileId);
+
+        return FileVO.builder()
+                .id(existing.getId())
+                .filename(existing.getFilename())
+                .fileSize(existing.getFileSize())
+                .fileType(existing.getFileType())
+                .uploadTime(existing.getUploadTime())
+                .status(existing.getStatus())
+                .build();
+    }
+
+    private void cleanUpAfterReplace(String oldPath, String newPath) {
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                deleteDiskFile(oldPath);
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    deleteDiskFile(newPath);
+                }
+            }
+        });
+    }
+
+    private static void deleteDiskFile(String path) {
+        try {
+            Files.deleteIfExists(Paths.get(path));
+            // 未完成索引时留下的文本检查点
+            Files.deleteIfExists(RagIndexServiceImpl.extractedTextPath(path));
+        } catch (Exception e) {
+            log.warn("删除磁盘文件失败: {}, {}", path, e.getMessage());
+        }
     }
 
     private void validateFile(MultipartFile file) {
@@ -167,30 +308,21 @@ public class FileServiceImpl implements FileService {
         return "";
     }
 
-    private void processFileAfterCommit(String fileId) {
-        if (org.springframework.transaction.support.TransactionSynchronizationManager.isSynchronizationActive()) {
-            org.springframework.transaction.support.TransactionSynchronizationManager.registerSynchronization(
-                    new org.springframework.transaction.support.TransactionSynchronization() {
-                        @Override
-                        public void afterCommit() {
-                            startIndexThread(fileId);
-                        }
-                    }
-            );
+    private void removeFromVectorIndexAfterCommit(String userId, String fileId) {
+        Runnable task = () -> {
+            vectorIndexService.ifPresent(index -> index.removeFile(userId, fileId));
+            vectorIndexVersions.afterLocalChange(userId);
+            retrievalResultCache.invalidate(userId);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
         } else {
-            startIndexThread(fileId);
+            task.run();
         }
     }
-
-    private void startIndexThread(String fileId) {
-        new Thread(() -> {
-            try {
-                log.info("开始索引文件: {}", fileId);
-                ragIndexService.indexFile(fileId);
-                log.info("文件索引完成: {}", fileId);
-            } catch (Exception e) {
-                log.error("文件处理失败: {}", fileId, e);
-            }
-        }, "rag-index-" + fileId).start();
-    }
 } 
\ No newline at end of file
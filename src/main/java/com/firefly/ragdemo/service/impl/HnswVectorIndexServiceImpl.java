@@ -0,0 +1,153 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.DocumentChunkMapper;
+import com.firefly.ragdemo.service.VectorIndexService;
+import com.firefly.ragdemo.util.VectorUtils;
+import com.firefly.ragdemo.vector.HnswIndex;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 按用户懒加载HNSW索引，首次查询时从document_chunks构建。
+ * 构建在 hnsw-build 线程池中进行，不占用缓存的锁，同一用户的并发查询共享同一次构建；
+ * 缓存按向量总数（cache-max-vectors）与最近访问时间（cache-expire-after-access）淘汰。
+ */
+@Service
+@ConditionalOnProperty(prefix = "app.rag", name = "search-backend", havingValue = "hnsw")
+@Slf4j
+public class HnswVectorIndexServiceImpl implements VectorIndexService {
+
+    private final DocumentChunkMapper documentChunkMapper;
+    private final RagConfig ragConfig;
+    private final ExecutorService buildExecutor;
+    private final AsyncLoadingCache<String, HnswIndex> indexes;
+
+    public HnswVectorIndexServiceImpl(DocumentChunkMapper documentChunkMapper, RagConfig ragConfig,
+                                      MeterRegistry meterRegistry) {
+        this.documentChunkMapper = documentChunkMapper;
+        this.ragConfig = ragConfig;
+        AtomicInteger seq = new AtomicInteger();
+        this.buildExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+            Thread t = new Thread(r, "hnsw-build-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        RagConfig.Hnsw cfg = ragConfig.getHnsw();
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(cfg.getCacheMaxVectors())
+                .weigher((String userId, HnswIndex index) -> index.size())
+                .expireAfterAccess(cfg.getCacheExpireAfterAccess())
+                .executor(buildExecutor)
+                .recordStats()
+                .buildAsync(this::build);
+        CaffeineCacheMetrics.monitor(meterRegistry, indexes.synchronous(), "hnsw_index");
+    }
+
+    @Override
+    public List<String> search(String userId, float[] query, int topK, int candidateLimit) {
+        HnswIndex index;
+        try {
+            index = indexes.get(userId).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+        return index.search(query, topK, Math.max(ragConfig.getHnsw().getEfSearch(), candidateLimit));
+    }
+
+    @Override
+    public void addChunks(String userId, List<DocumentChunk> chunks) {
+        // 索引尚未构建时无需处理，构建时会从数据库读到这些分块
+        update(userId, index -> {
+            for (DocumentChunk c : chunks) {
+                index.add(c.getId(), c.getFileId(), VectorUtils.vectorOf(c));
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public void removeFile(String userId, String fileId) {
+        update(userId, index -> {
+            index.removeFile(fileId);
+            return keep(userId, index);
+        });
+    }
+
+    @Override
+    public void removeChunks(String userId, String fileId, List<String> chunkIds) {
+        update(userId, index -> {
+            for (String id : chunkIds) {
+                index.remove(id);
+            }
+            return keep(userId, index);
+        });
+    }
+
+    @Override
+    public void invalidate(String userId) {
+        indexes.synchronous().invalidate(userId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        buildExecutor.shutdownNow();
+    }
+
+    /**
+     * 修改已缓存的索引；正在构建时等构建完成再修改（构建可能没读到调用方刚提交的分块）。
+     * action 返回false时丢弃索引，否则按修改后的节点数重新计算权重。
+     */
+    private void update(String userId, Predicate<HnswIndex> action) {
+        CompletableFuture<HnswIndex> future = indexes.getIfPresent(userId);
+        if (future == null) return;
+        HnswIndex index;
+        try {
+            index = future.join();
+        } catch (CompletionException | CancellationException e) {
+            return;
+        }
+        // 以原 future 为条件替换/删除，期间已被 invalidate 或重建时不会覆盖
+        if (action.test(index)) {
+            indexes.asMap().replace(userId, future, CompletableFuture.completedFuture(index));
+        } else {
+            indexes.asMap().remove(userId, future);
+        }
+    }
+
+    private boolean keep(String userId, HnswIndex index) {
+        if (index.deletedRatio() > ragConfig.getHnsw().getRebuildDeletedRatio()) {
+            log.info("HNSW索引删除比例过高，下次查询时重建 (userId={})", userId);
+            return false;
+        }
+        return true;
+    }
+
+    private HnswIndex build(String userId) {
+        long start = System.currentTimeMillis();
+        RagConfig.Hnsw cfg = ragConfig.getHnsw();
+        HnswIndex index = new HnswIndex(cfg.getM(), cfg.getEfConstruction());
+        List<DocumentChunk> rows = documentChunkMapper.findVectorsByUser(userId);
+        for (DocumentChunk c : rows) {
+            index.add(c.getId(), c.getFileId(), VectorUtils.vectorOf(c));
+        }
+        log.info("构建HNSW索引: userId={}, 节点数={}, 耗时={}ms", userId, index.liveSize(), System.currentTimeMillis() - start);
+        return index;
+    }
+}
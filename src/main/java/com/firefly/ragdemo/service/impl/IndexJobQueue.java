@@ -0,0 +1,223 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.IndexJob;
+import com.firefly.ragdemo.entity.UploadedFile;
+import com.firefly.ragdemo.mapper.IndexJobMapper;
+import com.firefly.ragdemo.mapper.UploadedFileMapper;
+import com.firefly.ragdemo.service.RagIndexService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 基于 index_jobs 表的索引任务队列。
+ * 每个节点一个轮询线程按空闲worker数领取任务（FOR UPDATE SKIP LOCKED），执行期间定期续租；
+ * 失败按指数退避重试，超过次数后标记失败；租约过期的任务（节点宕机）由任一节点重新排队，
+ * 同样计入次数。每个文件最多一个待执行、一个执行中的任务（见 schema.sql 的唯一索引）。
+ * 重试时上次已写入的分块由索引阶段的内容比对直接复用。
+ */
+@Component
+@Slf4j
+public class IndexJobQueue implements ApplicationRunner {
+
+    // 错误信息截断长度
+    private static final int MAX_ERROR_LENGTH = 2000;
+
+    private final IndexJobMapper indexJobMapper;
+    private final UploadedFileMapper uploadedFileMapper;
+    private final RagIndexService ragIndexService;
+    private final RagConfig.IndexQueue config;
+
+    private final String owner = ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID().toString().substring(0, 8);
+    private final Set<String> runningJobs = ConcurrentHashMap.newKeySet();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final Semaphore freeWorkers;
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+
+    public IndexJobQueue(IndexJobMapper indexJobMapper,
+                         UploadedFileMapper uploadedFileMapper,
+                         RagIndexService ragIndexService,
+                         RagConfig ragConfig,
+                         MeterRegistry meterRegistry) {
+        this.indexJobMapper = indexJobMapper;
+        this.uploadedFileMapper = uploadedFileMapper;
+        this.ragIndexService = ragIndexService;
+        this.config = ragConfig.getIndexQueue();
+        int workerCount = Math.max(1, config.getWorkers());
+        this.freeWorkers = new Semaphore(workerCount);
+        AtomicInteger seq = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread t = new Thread(r, "rag-index-worker-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rag-index-poller");
+            t.setDaemon(true);
+            return t;
+        });
+        Gauge.builder("rag.index.queue.depth", pendingCount, AtomicLong::get)
+                .description("等待执行的索引任务数（全集群）")
+                .register(meterRegistry);
+        Gauge.builder("rag.index.queue.running", runningJobs, Set::size)
+                .description("本节点正在执行的索引任务数")
+                .register(meterRegistry);
+    }
+
+    /**
+     * 在上传事务内写入任务，事务提交后唤醒本节点的轮询线程
+     */
+    public void enqueue(String fileId) {
+        indexJobMapper.insert(IndexJob.builder()
+                .id(UUID.randomUUID().toString())
+                .fileId(fileId)
+                .build());
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    wakeUp();
+                }
+            });
+        } else {
+            wakeUp();
+        }
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            int recovered = recoverExpiredLeases();
+            int orphaned = indexJobMapper.enqueueOrphanedFiles();
+            if (recovered > 0 || orphaned > 0) {
+                log.info("恢复索引任务: 租约过期{}个, 无任务的处理中文件{}个", recovered, orphaned);
+            }
+        } catch (Exception e) {
+            log.error("启动时恢复索引任务失败", e);
+        }
+        long interval = Math.max(100, config.getPollIntervalMs());
+        scheduler.scheduleWithFixedDelay(this::poll, 0, interval, TimeUnit.MILLISECONDS);
+        long renewEvery = Math.max(1, config.getLeaseSeconds() / 3);
+        scheduler.scheduleWithFixedDelay(this::renewLeases, renewEvery, renewEvery, TimeUnit.SECONDS);
+        log.info("索引任务队列已启动: owner={}, workers={}", owner, config.getWorkers());
+    }
+
+    private void wakeUp() {
+        try {
+            scheduler.execute(this::poll);
+        } catch (Exception ignored) {
+            // 关闭过程中
+        }
+    }
+
+    private void poll() {
+        try {
+            recoverExpiredLeases();
+            int free = freeWorkers.availablePermits();
+            if (free > 0) {
+                List<IndexJob> jobs = indexJobMapper.claim(owner, free, config.getLeaseSeconds());
+                for (IndexJob job : jobs) {
+                    freeWorkers.acquireUninterruptibly();
+                    runningJobs.add(job.getId());
+                    workers.execute(() -> runJob(job));
+                }
+            }
+            pendingCount.set(indexJobMapper.countByStatus(IndexJob.JobStatus.PENDING.name()));
+        } catch (Exception e) {
+            log.warn("轮询索引任务失败: {}", e.getMessage());
+        }
+    }
+
+    private int recoverExpiredLeases() {
+        indexJobMapper.deleteSupersededExpired();
+        int failed = indexJobMapper.failExhaustedExpired(config.getMaxAttempts());
+        if (failed > 0) {
+            log.error("{}个文件的索引任务租约过期且已达最大重试次数，标记为失败", failed);
+        }
+        return indexJobMapper.recoverExpiredLeases();
+    }
+
+    private void renewLeases() {
+        if (runningJobs.isEmpty()) return;
+        try {
+            indexJobMapper.renewLeases(owner, new ArrayList<>(runningJobs), config.getLeaseSeconds());
+        } catch (Exception e) {
+            log.warn("索引任务续租失败: {}", e.getMessage());
+        }
+    }
+
+    private void runJob(IndexJob job) {
+        String fileId = job.getFileId();
+        try {
+            log.info("开始索引文件: {} (第{}次)", fileId, job.getAttempts());
+            ragIndexService.indexFile(fileId);
+            Optional<UploadedFile> file = uploadedFileMapper.findById(fileId);
+            if (file.isPresent() && file.get().getStatus() == UploadedFile.FileStatus.FAILED) {
+                throw new IllegalStateException("索引失败，详见日志");
+            }
+            indexJobMapper.deleteCompleted(job.getId(), owner);
+            log.info("文件索引完成: {}", fileId);
+        } catch (Exception e) {
+            onFailure(job, e);
+        } finally {
+            runningJobs.remove(job.getId());
+            freeWorkers.release();
+        }
+        // 有空闲worker后立即尝试领取下一个
+        wakeUp();
+    }
+
+    private void onFailure(IndexJob job, Exception e) {
+        String error = e.getMessage() == null ? e.getClass().getName() : e.getMessage();
+        if (error.length() > MAX_ERROR_LENGTH) error = error.substring(0, MAX_ERROR_LENGTH);
+        try {
+            if (job.getAttempts() >= config.getMaxAttempts()) {
+                log.error("文件索引失败，已达最大重试次数: {}", job.getFileId(), e);
+                indexJobMapper.markFailed(job.getId(), owner, error);
+                uploadedFileMapper.updateStatus(job.getFileId(), UploadedFile.FileStatus.FAILED.name());
+            } else if (indexJobMapper.deleteIfSuperseded(job.getId(), owner) > 0) {
+                log.warn("文件索引失败，执行期间已有新的索引任务，不再重试: {} - {}", job.getFileId(), error);
+                uploadedFileMapper.updateStatus(job.getFileId(), UploadedFile.FileStatus.PROCESSING.name());
+            } else {
+                long delay = Math.min(config.getMaxRetryDelaySeconds(),
+                        config.getRetryDelaySeconds() << Math.min(20, job.getAttempts() - 1));
+                log.warn("文件索引失败，{}秒后重试 ({}/{}): {} - {}",
+                        delay, job.getAttempts(), config.getMaxAttempts(), job.getFileId(), error);
+                indexJobMapper.reschedule(job.getId(), owner, delay, error);
+                uploadedFileMapper.updateStatus(job.getFileId(), UploadedFile.FileStatus.PROCESSING.name());
+            }
+        } catch (Exception ex) {
+            // 租约过期后会被重新排队
+            log.error("更新索引任务状态失败: {}", job.getId(), ex);
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        workers.shutdownNow();
+    }
+}
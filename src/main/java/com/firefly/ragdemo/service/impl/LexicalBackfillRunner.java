@@ -0,0 +1,54 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.DocumentChunkMapper;
+import com.firefly.ragdemo.util.LexicalTokenizer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 为存量分块生成 content_tsv。切分在应用侧完成，因此无法用一条SQL回填
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.rag.hybrid", name = "backfill-on-startup", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class LexicalBackfillRunner implements ApplicationRunner {
+
+    private final DocumentChunkMapper documentChunkMapper;
+    private final RagConfig ragConfig;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread t = new Thread(this::backfill, "lexical-backfill");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void backfill() {
+        int batchSize = Math.max(1, ragConfig.getHybrid().getBackfillBatchSize());
+        long total = 0;
+        try {
+            while (true) {
+                List<DocumentChunk> rows = documentChunkMapper.findChunksWithoutLexemes(batchSize);
+                if (rows.isEmpty()) break;
+                for (DocumentChunk c : rows) {
+                    c.setLexemes(LexicalTokenizer.toLexemes(c.getContent()));
+                }
+                documentChunkMapper.updateLexemesBatch(rows);
+                total += rows.size();
+                log.debug("已回填content_tsv: {}", total);
+            }
+            log.info("content_tsv回填完成: 共{}行", total);
+        } catch (Exception e) {
+            log.error("content_tsv回填失败，已回填{}行", total, e);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.DocumentChunkMapper;
+import com.firefly.ragdemo.util.VectorUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * 将存量 embedding(JSONB) / embedding_bin 分批回填到 embedding_vec。
+ * 在后台线程执行，每批独立提交，不阻塞启动也不长时间持有锁。
+ */
+@Component
+@ConditionalOnProperty(prefix = "app.rag.pgvector", name = "migrate-on-startup", havingValue = "true")
+@RequiredArgsConstructor
+@Slf4j
+public class PgvectorMigrationRunner implements ApplicationRunner {
+
+    private final DocumentChunkMapper documentChunkMapper;
+    private final RagConfig ragConfig;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Thread t = new Thread(this::backfill, "pgvector-backfill");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void backfill() {
+        RagConfig.Pgvector cfg = ragConfig.getPgvector();
+        int batchSize = Math.max(1, cfg.getMigrationBatchSize());
+        long total = 0;
+        long start = System.currentTimeMillis();
+        log.info("开始回填embedding_vec, batchSize={}", batchSize);
+        try {
+            while (true) {
+                int updated = documentChunkMapper.backfillVectorColumn(batchSize);
+                total += updated;
+                if (updated == 0) break;
+                log.debug("已回填embedding_vec: {}", total);
+                pause(cfg);
+            }
+            // 只有 embedding_bin 的行需要在应用侧解码
+            while (true) {
+                List<DocumentChunk> rows = documentChunkMapper.findChunksWithoutVectorColumn(batchSize);
+                if (rows.isEmpty()) break;
+                for (DocumentChunk c : rows) {
+                    c.setEmbeddingJson(VectorUtils.toJsonArray(c.getEmbedding()));
+                }
+                total += documentChunkMapper.updateVectorColumnBatch(rows);
+                log.debug("已回填embedding_vec: {}", total);
+                pause(cfg);
+            }
+            log.info("embedding_vec回填完成: 共{}行, 耗时{}ms", total, System.currentTimeMillis() - start);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("embedding_vec回填被中断，已回填{}行", total);
+        } catch (Exception e) {
+            log.error("embedding_vec回填失败，已回填{}行", total, e);
+        }
+    }
+
+    private void pause(RagConfig.Pgvector cfg) throws InterruptedException {
+        if (cfg.getMigrationPauseMs() > 0) {
+            Thread.sleep(cfg.getMigrationPauseMs());
+        }
+    }
+}
@@ -0,0 +1,274 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.DocumentChunkMapper;
+import com.firefly.ragdemo.service.VectorIndexService;
+import com.firefly.ragdemo.util.VectorUtils;
+import com.firefly.ragdemo.vector.ProductQuantizer;
+import com.firefly.ragdemo.vector.ScalarQuantizer;
+import com.firefly.ragdemo.vector.TopK;
+import com.firefly.ragdemo.vector.VectorCodec;
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * 在内存中只保留压缩编码（int8 或 PQ）做粗排，取前 candidateLimit 个候选
+ * 再从数据库读取全精度向量精排。
+ * 编码（含PQ码本训练）在 quantized-build 线程池中构建，不占用缓存的锁；
+ * 缓存按向量总数（cache-max-vectors）与最近访问时间（cache-expire-after-access）淘汰。
+ */
+@Service
+@ConditionalOnProperty(prefix = "app.rag", name = "search-backend", havingValue = "quantized")
+@Slf4j
+public class QuantizedVectorIndexServiceImpl implements VectorIndexService {
+
+    private final DocumentChunkMapper documentChunkMapper;
+    private final RagConfig ragConfig;
+    private final ExecutorService buildExecutor;
+    // 召回率抽样要读取该用户全部向量，只用一个后台线程，积压时丢弃新的抽样
+    private final ThreadPoolExecutor recallExecutor;
+    private final AsyncLoadingCache<String, UserCodes> indexes;
+
+    public QuantizedVectorIndexServiceImpl(DocumentChunkMapper documentChunkMapper, RagConfig ragConfig,
+                                           MeterRegistry meterRegistry) {
+        this.documentChunkMapper = documentChunkMapper;
+        this.ragConfig = ragConfig;
+        AtomicInteger seq = new AtomicInteger();
+        this.buildExecutor = Executors.newFixedThreadPool(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), r -> {
+            Thread t = new Thread(r, "quantized-build-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.recallExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), r -> {
+            Thread t = new Thread(r, "quantized-recall");
+            t.setDaemon(true);
+            return t;
+        }, new ThreadPoolExecutor.DiscardPolicy());
+        RagConfig.Quantization cfg = ragConfig.getQuantization();
+        this.indexes = Caffeine.newBuilder()
+                .maximumWeight(cfg.getCacheMaxVectors())
+                .weigher((String userId, UserCodes index) -> index.entries.size())
+                .expireAfterAccess(cfg.getCacheExpireAfterAccess())
+                .executor(buildExecutor)
+                .recordStats()
+                .buildAsync(this::build);
+        CaffeineCacheMetrics.monitor(meterRegistry, indexes.synchronous(), "quantized_index");
+    }
+
+    @Override
+    public List<String> search(String userId, float[] query, int topK, int candidateLimit) {
+        UserCodes index;
+        try {
+            index = indexes.get(userId).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+        if (index == null || index.entries.isEmpty()) return Collections.emptyList();
+        float[] q = VectorUtils.normalize(query);
+
+        // 粗排：只扫描压缩编码
+        int candidates = Math.max(topK, candidateLimit);
+        VectorCodec.QueryScorer scorer = index.codec.scorer(q);
+        TopK<String> coarse = new TopK<>(candidates);
+        for (Entry e : index.entries) {
+            coarse.offer(scorer.score(e.code), e.chunkId);
+        }
+        List<String> candidateIds = new ArrayList<>(coarse.size());
+        for (int i = 0; i < coarse.size(); i++) candidateIds.add(coarse.item(i));
+
+        // 精排：全精度向量
+        TopK<String> exact = new TopK<>(topK);
+        for (DocumentChunk c : documentChunkMapper.findVectorsByIds(candidateIds)) {
+            float[] v = VectorUtils.vectorOf(c);
+            if (v == null || v.length != q.length) continue;
+            exact.offer(VectorUtils.dot(q, VectorUtils.normalize(v)), c.getId());
+        }
+        List<String> ids = new ArrayList<>(exact.size());
+        for (int i = 0; i < exact.size(); i++) ids.add(exact.item(i));
+
+        double sampleRate = ragConfig.getQuantization().getRecallSampleRate();
+        if (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            recallExecutor.execute(() -> logRecall(userId, q, ids, topK));
+        }
+        return ids;
+    }
+
+    @Override
+    public void addChunks(String userId, List<DocumentChunk> chunks) {
+        update(userId, index -> {
+            List<Entry> added = new ArrayList<>(chunks.size());
+            for (DocumentChunk c : chunks) {
+                float[] v = VectorUtils.vectorOf(c);
+                if (v == null || v.length == 0) continue;
+                added.add(new Entry(c.getId(), c.getFileId(), index.codec.encode(VectorUtils.normalize(v))));
+            }
+            index.entries.addAll(added);
+            // PQ码本按建索引时的数据训练，数据量翻倍后丢弃索引以便重新训练
+            return index.trainedOn == 0 || index.entries.size() <= index.trainedOn * 2;
+        });
+    }
+
+    @Override
+    public void removeFile(String userId, String fileId) {
+        update(userId, index -> {
+            index.entries.removeIf(e -> e.fileId.equals(fileId));
+            return true;
+        });
+    }
+
+    @Override
+    public void removeChunks(String userId, String fileId, List<String> chunkIds) {
+        Set<String> ids = new HashSet<>(chunkIds);
+        update(userId, index -> {
+            index.entries.removeIf(e -> ids.contains(e.chunkId));
+            return true;
+        });
+    }
+
+    @Override
+    public void invalidate(String userId) {
+        indexes.synchronous().invalidate(userId);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        buildExecutor.shutdownNow();
+        recallExecutor.shutdownNow();
+    }
+
+    /**
+     * 修改已缓存的编码；正在构建时等构建完成再修改（构建可能没读到调用方刚提交的分块）。
+     * action 返回false时丢弃编码，否则按修改后的向量数重新计算权重。
+     */
+    private void update(String userId, Predicate<UserCodes> action) {
+        CompletableFuture<UserCodes> future = indexes.getIfPresent(userId);
+        if (future == null) return;
+        UserCodes index;
+        try {
+            index = future.join();
+        } catch (CompletionException | CancellationException e) {
+            return;
+        }
+        // 空用户的构建结果为null，不会留在缓存中
+        if (index == null) return;
+        // 以原 future 为条件替换/删除，期间已被 invalidate 或重建时不会覆盖
+        if (action.test(index)) {
+            indexes.asMap().replace(userId, future, CompletableFuture.completedFuture(index));
+        } else {
+            indexes.asMap().remove(userId, future);
+        }
+    }
+
+    private UserCodes build(String userId) {
+        long start = System.currentTimeMillis();
+        RagConfig.Quantization cfg = ragConfig.getQuantization();
+        List<DocumentChunk> rows = documentChunkMapper.findVectorsByUser(userId);
+        List<String> ids = new ArrayList<>(rows.size());
+        List<String> fileIds = new ArrayList<>(rows.size());
+        List<float[]> vectors = new ArrayList<>(rows.size());
+        for (DocumentChunk c : rows) {
+            float[] v = VectorUtils.vectorOf(c);
+            if (v == null || v.length == 0) continue;
+            ids.add(c.getId());
+            fileIds.add(c.getFileId());
+            vectors.add(VectorUtils.normalize(v));
+        }
+        if (vectors.isEmpty()) {
+            // 不缓存空索引：编码维度要由第一批向量确定，否则之后 addChunks 追加的向量都按0维编码
+            return null;
+        }
+        VectorCodec codec;
+        int trainedOn = 0;
+        if (cfg.getCodec() == RagConfig.Quantization.Codec.PQ) {
+            List<float[]> sample = vectors;
+            if (vectors.size() > cfg.getPqTrainSampleSize()) {
+                sample = new ArrayList<>(vectors);
+                Collections.shuffle(sample);
+                sample = sample.subList(0, cfg.getPqTrainSampleSize());
+            }
+            codec = ProductQuantizer.train(sample, cfg.getPqSubspaces(), cfg.getPqTrainIterations(), userId.hashCode());
+            trainedOn = vectors.size();
+        } else {
+            codec = new ScalarQuantizer(vectors.get(0).length);
+        }
+        UserCodes index = new UserCodes(codec, trainedOn);
+        List<Entry> entries = new ArrayList<>(vectors.size());
+        for (int i = 0; i < vectors.size(); i++) {
+            entries.add(new Entry(ids.get(i), fileIds.get(i), codec.encode(vectors.get(i))));
+        }
+        index.entries.addAll(entries);
+        log.info("构建量化索引: userId={}, codec={}, 向量数={}, 每向量{}字节(原{}字节), 耗时={}ms",
+                userId, cfg.getCodec(), entries.size(), codec.codeBytes(),
+                vectors.get(0).length * Float.BYTES, System.currentTimeMillis() - start);
+        return index;
+    }
+
+    private void logRecall(String userId, float[] q, List<String> ids, int topK) {
+        List<DocumentChunk> rows;
+        try {
+            rows = documentChunkMapper.findVectorsByUser(userId);
+        } catch (Exception e) {
+            log.warn("量化检索召回率抽样失败: userId={}, {}", userId, e.getMessage());
+            return;
+        }
+        TopK<String> truth = new TopK<>(topK);
+        for (DocumentChunk c : rows) {
+            float[] v = VectorUtils.vectorOf(c);
+            if (v == null || v.length != q.length) continue;
+            truth.offer(VectorUtils.dot(q, VectorUtils.normalize(v)), c.getId());
+        }
+        if (truth.size() == 0) return;
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < truth.size(); i++) expected.add(truth.item(i));
+        long hit = ids.stream().filter(expected::contains).count();
+        log.info("量化检索召回率抽样: userId={}, recall@{}={}", userId, topK, hit / (double) expected.size());
+    }
+
+    private static final class UserCodes {
+        final VectorCodec codec;
+        final int trainedOn;
+        final List<Entry> entries = new CopyOnWriteArrayList<>();
+
+        UserCodes(VectorCodec codec, int trainedOn) {
+            this.codec = codec;
+            this.trainedOn = trainedOn;
+        }
+    }
+
+    private static final class Entry {
+        final String chunkId;
+        final String fileId;
+        final byte[] code;
+
+        Entry(String chunkId, String fileId, byte[] code) {
+            this.chunkId = chunkId;
+            this.fileId = fileId;
+            this.code = code;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.util.CacheKeys;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Base64;
+import java.util.function.Function;
+
+/**
+ * 查询embedding缓存：进程内Caffeine为一级，可选Redis为二级（多实例共享）。
+ * 键为 模型名 + 规范化后的查询文本（NFKC、去首尾空白、合并空白、小写）。
+ */
+@Component
+@Slf4j
+public class QueryEmbeddingCache {
+
+    private static final String REDIS_PREFIX = "rag:qemb:";
+    // Redis不可用时暂停访问的时间，避免每次查询都等待连接超时
+    private static final long REDIS_BACKOFF_MS = 30_000;
+
+    private final RagConfig.QueryCache config;
+    private final String model;
+    private final Cache<String, float[]> local;
+    private final StringRedisTemplate redisTemplate;
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter redisHits;
+    private volatile long redisDisabledUntil;
+
+    public QueryEmbeddingCache(RagConfig ragConfig,
+                               MeterRegistry meterRegistry,
+                               ObjectProvider<StringRedisTemplate> redisTemplate,
+                               @Value("${spring.ai.openai.embedding.options.model:text-embedding-3-small}") String model) {
+        this.config = ragConfig.getQueryCache();
+        this.model = model;
+        this.local = Caffeine.newBuilder()
+                .maximumSize(config.getMaxSize())
+                .expireAfterWrite(config.getTtl())
+                .recordStats()
+                .build();
+        this.redisTemplate = config.isRedisEnabled() ? redisTemplate.getIfAvailable() : null;
+        CaffeineCacheMetrics.monitor(meterRegistry, local, "query_embedding");
+        this.hits = Counter.builder("rag.query.embedding.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("rag.query.embedding.cache").tag("result", "miss").register(meterRegistry);
+        this.redisHits = Counter.builder("rag.query.embedding.cache").tag("result", "redis_hit").register(meterRegistry);
+    }
+
+    public float[] get(String text, Function<String, float[]> loader) {
+        if (!config.isEnabled()) {
+            return loader.apply(text);
+        }
+        String key = key(text);
+        float[] cached = local.getIfPresent(key);
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        float[] fromRedis = readRedis(key);
+        if (fromRedis != null) {
+            redisHits.increment();
+            local.put(key, fromRedis);
+            return fromRedis;
+        }
+        misses.increment();
+        float[] vector = loader.apply(text);
+        local.put(key, vector);
+        writeRedis(key, vector);
+        return vector;
+    }
+
+    String key(String text) {
+        return CacheKeys.sha256Hex(model, CacheKeys.normalizeQuery(text));
+    }
+
+    private float[] readRedis(String key) {
+        if (!redisUsable()) return null;
+        try {
+            String value = redisTemplate.opsForValue().get(REDIS_PREFIX + key);
+            return value == null ? null : decode(value);
+        } catch (Exception e) {
+            redisFailed(e);
+            return null;
+        }
+    }
+
+    private void writeRedis(String key, float[] vector) {
+        if (!redisUsable()) return;
+        try {
+            redisTemplate.opsForValue().set(REDIS_PREFIX + key, encode(vector), config.getRedisTtl());
+        } catch (Exception e) {
+            redisFailed(e);
+        }
+    }
+
+    private boolean redisUsable() {
+        return redisTemplate != null && System.currentTimeMillis() >= redisDisabledUntil;
+    }
+
+    private void redisFailed(Exception e) {
+        redisDisabledUntil = System.currentTimeMillis() + REDIS_BACKOFF_MS;
+        log.warn("查询embedding的Redis缓存不可用，{}秒内仅使用本地缓存: {}", REDIS_BACKOFF_MS / 1000, e.getMessage());
+    }
+
+    private static String encode(float[] vector) {
+        ByteBuffer buf = ByteBuffer.allocate(vector.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.asFloatBuffer().put(vector);
+        return Base64.getEncoder().encodeToString(buf.array());
+    }
+
+    private static float[] decode(String value) {
+        ByteBuffer buf = ByteBuffer.wrap(Base64.getDecoder().decode(value)).order(ByteOrder.LITTLE_ENDIAN);
+        float[] out = new float[buf.remaining() / Float.BYTES];
+        buf.asFloatBuffer().get(out);
+        return out;
+    }
+}
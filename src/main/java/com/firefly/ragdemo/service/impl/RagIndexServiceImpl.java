@@ -1,41 +1,96 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.RagConfig;
 import com.firefly.ragdemo.entity.DocumentChunk;
 import com.firefly.ragdemo.entity.UploadedFile;
 import com.firefly.ragdemo.mapper.DocumentChunkMapper;
 import com.firefly.ragdemo.mapper.UploadedFileMapper;
-import com.firefly.ragdemo.service.EmbeddingService;
 import com.firefly.ragdemo.service.RagIndexService;
 import com.firefly.ragdemo.service.TextChunker;
+import com.firefly.ragdemo.service.VectorIndexService;
+import com.firefly.ragdemo.util.CacheKeys;
+import com.firefly.ragdemo.util.LexicalTokenizer;
+import com.firefly.ragdemo.util.VectorUtils;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.tika.Tika;
+import org.apache.tika.io.TikaInputStream;
+import org.apache.tika.metadata.Metadata;
+import org.apache.tika.parser.ParseContext;
+import org.apache.tika.parser.Parser;
+import org.apache.tika.sax.BodyContentHandler;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.time.LocalDateTime;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
 
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class RagIndexServiceImpl implements RagIndexService {
 
+    private static final String END_OF_STREAM = new String("<end-of-stream>");
+    // 单条SQL写入/删除的分块数上限
+    private static final int WRITE_BATCH = 500;
+
     private final UploadedFileMapper uploadedFileMapper;
     private final DocumentChunkMapper documentChunkMapper;
+    private final DocumentChunkCopyWriter documentChunkCopyWriter;
     private final TextChunker textChunker;
-    private final EmbeddingService embeddingService;
+    private final ChunkEmbeddingCache chunkEmbeddingCache;
+    private final Optional<VectorIndexService> vectorIndexService;
+    private final RagConfig ragConfig;
+    private final RetrievalResultCache retrievalResultCache;
+    private final VectorIndexVersions vectorIndexVersions;
+    private final TransactionTemplate transactionTemplate;
 
     private final Tika tika = new Tika();
 
+    // 流式模式下的文本提取线程，每个索引任务占用一个
+    private final ExecutorService extractExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger seq = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "rag-extract-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
     @Override
-    @Transactional
     public void indexFile(String fileId) {
         Optional<UploadedFile> fileOpt = uploadedFileMapper.findById(fileId);
         if (fileOpt.isEmpty()) {
@@ -43,59 +98,349 @@ public class RagIndexServiceImpl implements RagIndexService {
             return;
         }
         UploadedFile file = fileOpt.get();
+        // 已有分块（文件被替换、或上次流式索引中途失败）时走比对，只处理变化的分块
+        List<DocumentChunk> existing = documentChunkMapper.findHashesByFile(fileId);
+        if (ragConfig.getStreaming().isEnabled() && existing.isEmpty()) {
+            indexStreaming(file);
+        } else {
+            indexStaged(file, existing);
+        }
+    }
+
+    /**
+     * 分阶段索引，只有最后的写库阶段占用数据库连接与事务：
+     * 提取（文本落盘为检查点）→ 分块 → 按内容hash与已有分块比对 → 事务外分段embedding（每段写入向量缓存，即检查点）
+     * → 一个短事务内删除/更新/写入分块并更新状态。
+     * 未变化的分块原样保留（仅在位置变化时更新 chunk_index），首次索引时 existing 为空，即全部写入。
+     * 失败后重试时，已提取的文本与已缓存的向量直接复用，不必重新解析与embedding
+     */
+    private void indexStaged(UploadedFile file, List<DocumentChunk> existing) {
+        String fileId = file.getId();
         try {
-            Path path = Paths.get(file.getFilePath());
-            String text;
-            if (Files.exists(path)) {
-                text = tika.parseToString(path);
-            } else {
-                log.warn("文件不存在于磁盘: {}", file.getFilePath());
-                text = "";
-            }
-            log.info("索引提取文本长度: {} (fileId={})", text != null ? text.length() : 0, fileId);
-            List<String> chunks = textChunker.split(text);
+            long start = System.currentTimeMillis();
+            // 分块视图：未变化的分块只参与hash比对，不生成字符串
+            List<? extends CharSequence> chunks = ragConfig.getStreaming().isEnabled() ? extractChunks(file) : splitWhole(file);
             log.info("分块数量: {} (fileId={})", chunks.size(), fileId);
-            if (chunks.isEmpty()) {
-                log.info("文件无可索引内容: {}", fileId);
+            long extracted = System.currentTimeMillis();
+
+            ChunkDiff diff = diff(chunks, existing);
+            if (!existing.isEmpty()) {
+                log.info("分块比对: 保留={}, 新增={}, 删除={}, 位置变化={} (fileId={})",
+                        chunks.size() - diff.addedTexts.size(), diff.addedTexts.size(),
+                        diff.removedIds.size(), diff.moved.size(), fileId);
+            }
+
+            List<DocumentChunk> added = new ArrayList<>(diff.addedTexts.size());
+            if (!diff.addedTexts.isEmpty()) {
+                float[][] embeddings = embedWithCheckpoints(diff.addedTexts, fileId);
+                log.info("已生成向量数: {} (fileId={})", embeddings.length, fileId);
+                for (int i = 0; i < embeddings.length; i++) {
+                    added.add(buildChunk(file, diff.addedIndexes.get(i), diff.addedTexts.get(i),
+                            diff.addedHashes.get(i), embeddings[i]));
+                }
+            }
+            long embedded = System.currentTimeMillis();
+
+            transactionTemplate.executeWithoutResult(status -> {
+                for (int from = 0; from < diff.removedIds.size(); from += WRITE_BATCH) {
+                    documentChunkMapper.deleteByIds(diff.removedIds.subList(from, Math.min(diff.removedIds.size(), from + WRITE_BATCH)));
+                }
+                for (int from = 0; from < diff.moved.size(); from += WRITE_BATCH) {
+                    documentChunkMapper.updateChunkIndexBatch(diff.moved.subList(from, Math.min(diff.moved.size(), from + WRITE_BATCH)));
+                }
+                if (!added.isEmpty()) {
+                    insertChunks(file, added);
+                }
+                if (!added.isEmpty() || !diff.removedIds.isEmpty()) {
+                    updateVectorIndexAfterCommit(file.getUserId(), fileId, diff.removedIds, added);
+                }
                 uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.COMPLETED.name());
-                return;
+            });
+            deleteCheckpoint(file);
+            log.info("索引完成: 提取分块{}ms, embedding {}ms, 写库{}ms (fileId={})",
+                    extracted - start, embedded - extracted, System.currentTimeMillis() - embedded, fileId);
+        } catch (Exception e) {
+            log.error("索引文件失败: {}", fileId, e);
+            uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.FAILED.name());
+        }
+    }
+
+    private static ChunkDiff diff(List<? extends CharSequence> chunks, List<DocumentChunk> existing) {
+        Map<String, Deque<DocumentChunk>> byHash = new HashMap<>();
+        for (DocumentChunk c : existing) {
+            byHash.computeIfAbsent(c.getContentHash(), k -> new ArrayDeque<>()).add(c);
+        }
+        ChunkDiff diff = new ChunkDiff();
+        for (int i = 0; i < chunks.size(); i++) {
+            String hash = CacheKeys.contentHash(chunks.get(i));
+            Deque<DocumentChunk> same = byHash.get(hash);
+            DocumentChunk kept = same == null ? null : same.poll();
+            if (kept == null) {
+                diff.addedTexts.add(chunks.get(i).toString());
+                diff.addedHashes.add(hash);
+                diff.addedIndexes.add(i);
+            } else if (kept.getChunkIndex() != i) {
+                kept.setChunkIndex(i);
+                diff.moved.add(kept);
             }
-            List<List<Double>> embeddings = embeddingService.embedBatch(chunks);
-            log.info("已生成向量数: {} (fileId={})", embeddings != null ? embeddings.size() : 0, fileId);
-            List<DocumentChunk> entities = new ArrayList<>();
-            for (int i = 0; i < chunks.size(); i++) {
-                List<Double> vec = embeddings.get(i);
-                String json = toJsonArray(vec);
-                entities.add(DocumentChunk.builder()
-                        .id(UUID.randomUUID().toString())
-                        .userId(file.getUserId())
-                        .fileId(file.getId())
-                        .chunkIndex(i)
-                        .content(chunks.get(i))
-                        .embeddingJson(json)
-                        .createdAt(LocalDateTime.now())
-                        .build());
+        }
+        for (Deque<DocumentChunk> rest : byHash.values()) {
+            for (DocumentChunk c : rest) diff.removedIds.add(c.getId());
+        }
+        return diff;
+    }
+
+    /**
+     * 分段embedding，每段完成后即写入向量缓存；中途失败时已完成的段在重试时直接命中缓存
+     */
+    private float[][] embedWithCheckpoints(List<String> texts, String fileId) {
+        int slice = Math.max(1, ragConfig.getIndexQueue().getEmbedCheckpointSize());
+        float[][] result = new float[texts.size()][];
+        for (int from = 0; from < texts.size(); from += slice) {
+            int to = Math.min(texts.size(), from + slice);
+            float[][] part = chunkEmbeddingCache.embedAll(texts.subList(from, to), fileId);
+            System.arraycopy(part, 0, result, from, part.length);
+        }
+        return result;
+    }
+
+    private List<? extends CharSequence> splitWhole(UploadedFile file) throws Exception {
+        Path path = Paths.get(file.getFilePath());
+        Path checkpoint = extractedTextPath(file.getFilePath());
+        String text;
+        if (Files.exists(checkpoint)) {
+            text = Files.readString(checkpoint, StandardCharsets.UTF_8);
+            log.info("复用已提取的文本: {} (fileId={})", checkpoint, file.getId());
+        } else if (Files.exists(path)) {
+            text = tika.parseToString(path);
+            writeCheckpoint(checkpoint, text);
+        } else {
+            log.warn("文件不存在于磁盘: {}", file.getFilePath());
+            text = "";
+        }
+        log.info("索引提取文本长度: {} (fileId={})", text != null ? text.length() : 0, file.getId());
+        return textChunker.chunk(text);
+    }
+
+    /**
+     * 提取文本的检查点文件，与上传文件同目录；文件被替换后路径随之变化，不会误用旧文本
+     */
+    static Path extractedTextPath(String filePath) {
+        return Paths.get(filePath + ".extracted.txt");
+    }
+
+    private void writeCheckpoint(Path checkpoint, String text) {
+        if (text == null || text.isEmpty()) return;
+        try {
+            Path tmp = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            Files.writeString(tmp, text, StandardCharsets.UTF_8);
+            Files.move(tmp, checkpoint, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (Exception e) {
+            log.warn("写入文本检查点失败，重试时将重新解析: {}", e.getMessage());
+        }
+    }
+
+    private void deleteCheckpoint(UploadedFile file) {
+        try {
+            Files.deleteIfExists(extractedTextPath(file.getFilePath()));
+        } catch (Exception ignored) { }
+    }
+
+    /**
+     * 流式模式下的整文件分块：与 indexStreaming 使用相同的提取与切分，不受 parseToString 的长度上限影响
+     */
+    private List<String> extractChunks(UploadedFile file) throws Exception {
+        List<String> chunks = new ArrayList<>();
+        extract(file, chunks::add, new AtomicBoolean());
+        return chunks;
+    }
+
+    /**
+     * 流式索引：提取线程把 Tika 的字符流送入 StreamingTextChunker，分块经有界队列交给当前线程，
+     * 每凑满一批就embedding并在独立的短事务中写库，已提交的分块立即可被检索。
+     * 失败时删除本文件已写入的分块。
+     */
+    private void indexStreaming(UploadedFile file) {
+        String fileId = file.getId();
+        RagConfig.Streaming cfg = ragConfig.getStreaming();
+        BlockingQueue<String> queue = new ArrayBlockingQueue<>(Math.max(1, cfg.getQueueCapacity()));
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Future<?> extraction = extractExecutor.submit(() -> {
+            try {
+                extract(file, chunk -> putUntilCancelled(queue, chunk, cancelled), cancelled);
+            } finally {
+                putUntilCancelled(queue, END_OF_STREAM, cancelled);
             }
-            if (!entities.isEmpty()) {
-                int inserted = documentChunkMapper.insertBatch(entities);
-                log.info("写入分块记录数: {} (fileId={})", inserted, fileId);
+            return null;
+        });
+
+        int batchSize = Math.max(1, cfg.getBatchSize());
+        List<String> batch = new ArrayList<>(batchSize);
+        int nextIndex = 0;
+        long start = System.currentTimeMillis();
+        try {
+            while (true) {
+                String chunk = queue.take();
+                if (chunk != END_OF_STREAM) {
+                    batch.add(chunk);
+                }
+                if (batch.size() >= batchSize || (chunk == END_OF_STREAM && !batch.isEmpty())) {
+                    float[][] embeddings = chunkEmbeddingCache.embedAll(batch, fileId);
+                    int from = nextIndex;
+                    List<String> toWrite = batch;
+                    transactionTemplate.executeWithoutResult(status -> persistChunks(file, toWrite, embeddings, from));
+                    nextIndex += batch.size();
+                    batch = new ArrayList<>(batchSize);
+                }
+                if (chunk == END_OF_STREAM) break;
             }
+            // 提取线程的异常在这里抛出
+            extraction.get();
+            log.info("流式索引完成: 分块数={}, 耗时={}ms (fileId={})", nextIndex, System.currentTimeMillis() - start, fileId);
             uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.COMPLETED.name());
         } catch (Exception e) {
-            log.error("索引文件失败: {}", fileId, e);
+            cancelled.set(true);
+            extraction.cancel(true);
+            if (e instanceof InterruptedException) Thread.currentThread().interrupt();
+            Throwable cause = e instanceof ExecutionException ? e.getCause() : e;
+            log.error("流式索引文件失败，已写入{}个分块将被删除: {}", nextIndex, fileId, cause);
+            if (nextIndex > 0) {
+                documentChunkMapper.deleteByFileIdAndUser(fileId, file.getUserId());
+                vectorIndexService.ifPresent(index -> index.removeFile(file.getUserId(), fileId));
+                vectorIndexVersions.afterLocalChange(file.getUserId());
+                retrievalResultCache.invalidate(file.getUserId());
+            }
             uploadedFileMapper.updateStatus(fileId, UploadedFile.FileStatus.FAILED.name());
         }
     }
 
-    private String toJsonArray(List<Double> vec) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < vec.size(); i++) {
-            if (i > 0) sb.append(',');
-            // 保留足够精度
-            sb.append(String.format(java.util.Locale.US, "%.8f", vec.get(i)));
+    private void extract(UploadedFile file, Consumer<String> sink, AtomicBoolean cancelled) throws Exception {
+        Path path = Paths.get(file.getFilePath());
+        if (!Files.exists(path)) {
+            log.warn("文件不存在于磁盘: {}", file.getFilePath());
+            return;
+        }
+        StreamingTextChunker chunker = new StreamingTextChunker(sink);
+        ContentHandler handler = new BodyContentHandler(new DefaultHandler() {
+            @Override
+            public void characters(char[] ch, int start, int length) throws SAXException {
+                if (cancelled.get()) throw new SAXException("索引已取消");
+                chunker.accept(ch, start, length);
+            }
+
+            @Override
+            public void ignorableWhitespace(char[] ch, int start, int length) throws SAXException {
+                characters(ch, start, length);
+            }
+        });
+        Parser parser = tika.getParser();
+        ParseContext context = new ParseContext();
+        context.set(Parser.class, parser);
+        try (InputStream in = TikaInputStream.get(path)) {
+            parser.parse(in, handler, new Metadata(), context);
+        }
+        chunker.finish();
+    }
+
+    /**
+     * 队列满时阻塞（背压），索引线程失败后放弃
+     */
+    private static void putUntilCancelled(BlockingQueue<String> queue, String item, AtomicBoolean cancelled) {
+        try {
+            while (!queue.offer(item, 1, TimeUnit.SECONDS)) {
+                if (cancelled.get()) throw new CancellationException("索引已取消");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("索引已取消");
+        }
+    }
+
+    /**
+     * 写入一批分块，chunkIndex 从 firstIndex 开始；提交后更新向量索引
+     */
+    private void persistChunks(UploadedFile file, List<String> chunks, float[][] embeddings, int firstIndex) {
+        List<DocumentChunk> entities = new ArrayList<>(chunks.size());
+        for (int i = 0; i < chunks.size(); i++) {
+            entities.add(buildChunk(file, firstIndex + i, chunks.get(i), CacheKeys.contentHash(chunks.get(i)), embeddings[i]));
+        }
+        insertChunks(file, entities);
+        updateVectorIndexAfterCommit(file.getUserId(), file.getId(), List.of(), entities);
+    }
+
+    private DocumentChunk buildChunk(UploadedFile file, int chunkIndex, String content, String contentHash, float[] vec) {
+        // JSON文本仅在仍需写 jsonb 或 pgvector 列时生成
+        boolean writeJson = ragConfig.getStorage().isWriteJson() || ragConfig.isPgvectorWriteEnabled();
+        return DocumentChunk.builder()
+                .id(UUID.randomUUID().toString())
+                .userId(file.getUserId())
+                .fileId(file.getId())
+                .chunkIndex(chunkIndex)
+                .content(content)
+                .contentHash(contentHash)
+                .embedding(vec)
+                .embeddingJson(writeJson ? VectorUtils.toJsonArray(vec) : null)
+                .lexemes(LexicalTokenizer.toLexemes(content))
+                .createdAt(LocalDateTime.now())
+                .build();
+    }
+
+    private void insertChunks(UploadedFile file, List<DocumentChunk> entities) {
+        boolean writeJson = ragConfig.getStorage().isWriteJson();
+        boolean writeVector = ragConfig.isPgvectorWriteEnabled();
+        boolean writeLexemes = ragConfig.getHybrid().isEnabled();
+        int copyThreshold = ragConfig.getStorage().getCopyThreshold();
+        int inserted = 0;
+        if (copyThreshold > 0 && entities.size() >= copyThreshold) {
+            inserted = documentChunkCopyWriter.write(entities, writeJson, writeVector, writeLexemes);
+        } else {
+            for (int from = 0; from < entities.size(); from += WRITE_BATCH) {
+                inserted += documentChunkMapper.insertBatch(entities.subList(from, Math.min(entities.size(), from + WRITE_BATCH)),
+                        writeJson, writeVector, writeLexemes);
+            }
+        }
+        log.info("写入分块记录数: {} (fileId={})", inserted, file.getId());
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        extractExecutor.shutdownNow();
+    }
+
+    private void updateVectorIndexAfterCommit(String userId, String fileId, List<String> removedIds, List<DocumentChunk> added) {
+        Runnable task = () -> {
+            if (vectorIndexService.isPresent()) {
+                try {
+                    if (!removedIds.isEmpty()) {
+                        vectorIndexService.get().removeChunks(userId, fileId, removedIds);
+                    }
+                    if (!added.isEmpty()) {
+                        vectorIndexService.get().addChunks(userId, added);
+                    }
+                } catch (Exception e) {
+                    log.warn("更新向量索引失败 (userId={}): {}", userId, e.getMessage());
+                }
+                vectorIndexVersions.afterLocalChange(userId);
+            }
+            retrievalResultCache.invalidate(userId);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    task.run();
+                }
+            });
+        } else {
+            task.run();
         }
-        sb.append(']');
-        return sb.toString();
     }
-} 
\ No newline at end of file
+
+    private static final class ChunkDiff {
+        final List<String> addedTexts = new ArrayList<>();
+        final List<String> addedHashes = new ArrayList<>();
+        final List<Integer> addedIndexes = new ArrayList<>();
+        final List<DocumentChunk> moved = new ArrayList<>();
+        final List<String> removedIds = new ArrayList<>();
+    }
+}
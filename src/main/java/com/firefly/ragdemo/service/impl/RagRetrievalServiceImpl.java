@@ -1,28 +1,241 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.RagConfig;
 import com.firefly.ragdemo.entity.DocumentChunk;
 import com.firefly.ragdemo.mapper.DocumentChunkMapper;
 import com.firefly.ragdemo.service.EmbeddingService;
 import com.firefly.ragdemo.service.RagRetrievalService;
+import com.firefly.ragdemo.service.VectorIndexService;
+import com.firefly.ragdemo.util.LexicalTokenizer;
+import com.firefly.ragdemo.util.VectorUtils;
+import com.firefly.ragdemo.vector.TopK;
+import jakarta.annotation.PreDestroy;
 import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Service
 @RequiredArgsConstructor
+@Slf4j
 public class RagRetrievalServiceImpl implements RagRetrievalService {
 
     private final DocumentChunkMapper documentChunkMapper;
     private final EmbeddingService embeddingService;
+    private final Optional<VectorIndexService> vectorIndexService;
+    private final RagConfig ragConfig;
+    private final TransactionTemplate transactionTemplate;
+    private final RetrievalResultCache retrievalResultCache;
+    private final VectorIndexVersions vectorIndexVersions;
+
+    // 开启pgvector双写后 embedding_vec 已回填完的用户；双写保证之后写入的分块也带该列
+    private final Set<String> vectorColumnReady = ConcurrentHashMap.newKeySet();
+
+    // 混合检索时承载向量通道（查询embedding + 向量检索）
+    private final ExecutorService retrievalExecutor = Executors.newFixedThreadPool(8, new ThreadFactory() {
+        private final AtomicInteger seq = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "rag-retrieval-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    });
 
     @Override
     public List<String> retrieveContext(String userId, String query, int topK, int candidateLimit) {
-        List<Double> q = embeddingService.embed(query);
-        String qJson = toJsonArray(q);
-        List<DocumentChunk> chunks = documentChunkMapper.searchTopKByUser(userId, qJson, Math.max(topK, 3));
+        return retrievalResultCache.get(userId, query, topK, candidateLimit,
+                () -> retrieve(userId, query, topK, candidateLimit));
+    }
+
+    private RetrievalResultCache.Result retrieve(String userId, String query, int topK, int candidateLimit) {
+        if (!ragConfig.getHybrid().isEnabled()) {
+            return RetrievalResultCache.Result.complete(toContents(vectorSearch(userId, query, topK, candidateLimit), topK));
+        }
+        return hybridSearch(userId, query, topK, candidateLimit);
+    }
+
+    /**
+     * 向量通道与词法通道并行，RRF融合；向量通道超时且词法有结果时直接使用词法结果。
+     * 只用了一个通道的结果标记为降级，不进入结果缓存
+     */
+    private RetrievalResultCache.Result hybridSearch(String userId, String query, int topK, int candidateLimit) {
+        RagConfig.Hybrid cfg = ragConfig.getHybrid();
+        int channelLimit = Math.max(topK, cfg.getLexicalLimit());
+        CompletableFuture<List<DocumentChunk>> vectorFuture = CompletableFuture.supplyAsync(
+                () -> vectorSearch(userId, query, channelLimit, candidateLimit), retrievalExecutor);
+
+        List<DocumentChunk> lexical;
+        try {
+            lexical = lexicalSearch(userId, query, channelLimit);
+        } catch (Exception e) {
+            log.warn("词法检索失败，仅使用向量通道: {}", e.getMessage());
+            lexical = null;
+        }
+
+        List<DocumentChunk> vector;
+        try {
+            if (lexical == null || lexical.isEmpty()) {
+                vector = vectorFuture.get();
+            } else {
+                vector = vectorFuture.get(cfg.getVectorTimeoutMs(), TimeUnit.MILLISECONDS);
+            }
+        } catch (TimeoutException e) {
+            vectorFuture.cancel(true);
+            log.info("向量通道超过{}ms未返回，使用词法结果 (userId={})", cfg.getVectorTimeoutMs(), userId);
+            return RetrievalResultCache.Result.degraded(toContents(lexical, topK));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return RetrievalResultCache.Result.degraded(toContents(lexical == null ? Collections.emptyList() : lexical, topK));
+        } catch (ExecutionException e) {
+            if (lexical == null || lexical.isEmpty()) {
+                throw new RuntimeException("检索失败: " + e.getCause().getMessage(), e.getCause());
+            }
+            log.warn("向量通道失败，使用词法结果: {}", e.getCause().getMessage());
+            return RetrievalResultCache.Result.degraded(toContents(lexical, topK));
+        }
+        if (lexical == null) {
+            return RetrievalResultCache.Result.degraded(toContents(vector, topK));
+        }
+        return RetrievalResultCache.Result.complete(toContents(reciprocalRankFusion(List.of(vector, lexical), cfg.getRrfK()), topK));
+    }
+
+    private List<DocumentChunk> reciprocalRankFusion(List<List<DocumentChunk>> rankings, int k) {
+        Map<String, DocumentChunk> byId = new HashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<DocumentChunk> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                DocumentChunk c = ranking.get(rank);
+                byId.putIfAbsent(c.getId(), c);
+                scores.merge(c.getId(), 1d / (k + rank + 1), Double::sum);
+            }
+        }
+        List<Map.Entry<String, Double>> sorted = new ArrayList<>(scores.entrySet());
+        sorted.sort(Map.Entry.<String, Double>comparingByValue().reversed());
+        List<DocumentChunk> fused = new ArrayList<>(sorted.size());
+        for (Map.Entry<String, Double> e : sorted) {
+            fused.add(byId.get(e.getKey()));
+        }
+        return fused;
+    }
+
+    private List<DocumentChunk> lexicalSearch(String userId, String query, int limit) {
+        String tsQuery = LexicalTokenizer.toTsQuery(query);
+        if (tsQuery == null) return Collections.emptyList();
+        return documentChunkMapper.searchLexicalByUser(userId, tsQuery, limit);
+    }
+
+    private List<DocumentChunk> vectorSearch(String userId, String query, int topK, int candidateLimit) {
+        float[] q = embeddingService.embedQueryVector(query);
+        try {
+            switch (ragConfig.getSearchBackend()) {
+                case HNSW, MMAP, QUANTIZED -> {
+                    if (vectorIndexService.isPresent()) {
+                        vectorIndexVersions.beforeSearch(userId);
+                        List<String> ids = vectorIndexService.get().search(userId, q, topK, candidateLimit);
+                        if (!ids.isEmpty()) {
+                            return loadChunks(ids);
+                        }
+                    }
+                }
+                case PGVECTOR -> {
+                    List<DocumentChunk> results = searchPgvector(userId, VectorUtils.toJsonArray(q), topK);
+                    if (!results.isEmpty()) {
+                        return results;
+                    }
+                }
+                default -> { }
+            }
+        } catch (Exception e) {
+            log.warn("{}检索失败，回退到精确扫描: {}", ragConfig.getSearchBackend(), e.getMessage());
+        }
+        if (ragConfig.getSearchBackend() != RagConfig.SearchBackend.PGVECTOR && vectorColumnReady(userId)) {
+            try {
+                List<DocumentChunk> results = searchPgvector(userId, VectorUtils.toJsonArray(q), topK);
+                if (!results.isEmpty()) {
+                    return results;
+                }
+            } catch (Exception e) {
+                log.warn("pgvector检索失败，回退到精确扫描: {}", e.getMessage());
+            }
+        }
+        return exactScan(userId, q, Math.max(topK, 3));
+    }
+
+    /**
+     * 双写开启且该用户没有未回填 embedding_vec 的分块时，可以直接在数据库中排序
+     */
+    private boolean vectorColumnReady(String userId) {
+        if (!ragConfig.getPgvector().isDualWrite()) return false;
+        if (vectorColumnReady.contains(userId)) return true;
+        try {
+            if (!documentChunkMapper.hasChunksWithoutVectorColumn(userId)) {
+                vectorColumnReady.add(userId);
+                return true;
+            }
+        } catch (Exception e) {
+            log.warn("检查 embedding_vec 回填状态失败: {}", e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * 在应用侧按余弦相似度精确排序。向量在事务内按批流式读取，最多读取 exactScanLimit 个分块
+     */
+    private List<DocumentChunk> exactScan(String userId, float[] query, int topK) {
+        float[] q = VectorUtils.normalize(query);
+        TopK<String> top = new TopK<>(topK);
+        int limit = ragConfig.getExactScanLimit();
+        int[] scanned = new int[1];
+        transactionTemplate.executeWithoutResult(status -> documentChunkMapper.scanVectorsByUser(userId, limit, ctx -> {
+            scanned[0]++;
+            DocumentChunk c = ctx.getResultObject();
+            float[] v = VectorUtils.vectorOf(c);
+            if (v == null || v.length != q.length) return;
+            top.offer(VectorUtils.dot(q, VectorUtils.normalize(v)), c.getId());
+        }));
+        if (scanned[0] >= limit) {
+            log.warn("用户分块数超过精确扫描上限{}，只在前{}个分块中排序 (userId={})；请改用 hnsw/pgvector 等后端，或开启pgvector双写",
+                    limit, limit, userId);
+        }
+        if (top.size() == 0) return Collections.emptyList();
+        List<String> ids = new ArrayList<>(top.size());
+        for (int i = 0; i < top.size(); i++) ids.add(top.item(i));
+        return loadChunks(ids);
+    }
+
+    private List<DocumentChunk> searchPgvector(String userId, String qJson, int topK) {
+        RagConfig.Pgvector cfg = ragConfig.getPgvector();
+        // set_config(..., true) 只在事务内生效，因此把参数设置与查询放在同一个短事务里
+        return transactionTemplate.execute(status -> {
+            documentChunkMapper.setLocalConfig("hnsw.ef_search", String.valueOf(Math.max(cfg.getEfSearch(), topK)));
+            if (cfg.getIterativeScan() != null && !cfg.getIterativeScan().isBlank()) {
+                documentChunkMapper.setLocalConfig("hnsw.iterative_scan", cfg.getIterativeScan());
+            }
+            return documentChunkMapper.searchTopKByUserVector(userId, qJson, Math.max(topK, 3));
+        });
+    }
+
+    private List<String> toContents(List<DocumentChunk> chunks, int topK) {
         List<String> results = new ArrayList<>();
         for (int i = 0; i < Math.min(topK, chunks.size()); i++) {
             results.add(chunks.get(i).getContent());
@@ -30,14 +243,24 @@ public class RagRetrievalServiceImpl implements RagRetrievalService {
         return results;
     }
 
-    private String toJsonArray(List<Double> vec) {
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < vec.size(); i++) {
-            if (i > 0) sb.append(',');
-            sb.append(String.format(Locale.US, "%.8f", vec.get(i)));
+    /**
+     * 按ids顺序返回分块
+     */
+    private List<DocumentChunk> loadChunks(List<String> ids) {
+        Map<String, DocumentChunk> byId = new HashMap<>();
+        for (DocumentChunk c : documentChunkMapper.findByIds(ids)) {
+            byId.put(c.getId(), c);
         }
-        sb.append(']');
-        return sb.toString();
+        List<DocumentChunk> results = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            DocumentChunk c = byId.get(id);
+            if (c != null) results.add(c);
+        }
+        return results;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        retrievalExecutor.shutdownNow();
     }
-} 
\ No newline at end of file
+}
@@ -0,0 +1,220 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.JwtConfig;
+import com.firefly.ragdemo.entity.RefreshToken;
+import com.firefly.ragdemo.secutiry.JwtUtil;
+import com.firefly.ragdemo.service.RefreshTokenService;
+import com.firefly.ragdemo.util.CacheKeys;
+import io.jsonwebtoken.Claims;
+import io.jsonwebtoken.ExpiredJwtException;
+import io.jsonwebtoken.JwtException;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * 以Redis保存刷新令牌：键为令牌的 SHA-256（不保存令牌原文），值为userId，过期由Redis的TTL完成，无需定时清理。
+ * 同一用户的令牌键都带有 {userId} 哈希标签并登记在该用户的有序集合中（分值为过期时间戳），集群模式下脚本涉及的键位于同一slot，
+ * 吊销全部令牌时按集合删除。每次写入时剔除已过期的成员并把集合的过期时间设为最晚的令牌过期时间，集合不会无限增长。
+ * 创建、轮换（校验旧令牌、删除旧令牌、写入新令牌）与吊销都由Lua脚本原子完成，一次往返。
+ */
+@Service
+@ConditionalOnProperty(prefix = "app.auth", name = "refresh-token-store", havingValue = "redis")
+@Slf4j
+public class RedisRefreshTokenService implements RefreshTokenService {
+
+    private static final String PREFIX = "rag:rt:";
+
+    // 各脚本的最后一个键为用户集合、最后一个参数为当前毫秒时间戳。
+    // 旧版本用SET登记令牌，首次遇到时按各令牌键的剩余TTL转为有序集合
+    private static final String PRELUDE = """
+            local users = KEYS[#KEYS]
+            local now = tonumber(ARGV[#ARGV])
+            if redis.call('TYPE', users).ok == 'set' then
+              local members = redis.call('SMEMBERS', users)
+              redis.call('DEL', users)
+              for _, k in ipairs(members) do
+                local ttl = redis.call('PTTL', k)
+                if ttl > 0 then
+                  redis.call('ZADD', users, now + ttl, k)
+                end
+              end
+            end
+            local function prune()
+              redis.call('ZREMRANGEBYSCORE', users, '-inf', now)
+              local last = redis.call('ZRANGE', users, -1, -1, 'WITHSCORES')
+              if last[2] then
+                redis.call('PEXPIREAT', users, last[2])
+              end
+            end
+            """;
+
+    // KEYS: 令牌键, 用户集合; ARGV: userId, ttl毫秒, 当前时间
+    private static final DefaultRedisScript<Long> CREATE = new DefaultRedisScript<>(PRELUDE + """
+            redis.call('SET', KEYS[1], ARGV[1], 'PX', ARGV[2])
+            redis.call('ZADD', users, now + tonumber(ARGV[2]), KEYS[1])
+            prune()
+            return 1
+            """, Long.class);
+
+    // KEYS: 旧令牌键, 新令牌键, 用户集合; ARGV: userId, ttl毫秒, 当前时间。旧令牌不存在或不属于该用户时返回0
+    private static final DefaultRedisScript<Long> ROTATE = new DefaultRedisScript<>(PRELUDE + """
+            if redis.call('GET', KEYS[1]) ~= ARGV[1] then
+              return 0
+            end
+            redis.call('DEL', KEYS[1])
+            redis.call('ZREM', users, KEYS[1])
+            redis.call('SET', KEYS[2], ARGV[1], 'PX', ARGV[2])
+            redis.call('ZADD', users, now + tonumber(ARGV[2]), KEYS[2])
+            prune()
+            return 1
+            """, Long.class);
+
+    // KEYS: 令牌键, 用户集合; ARGV: 当前时间
+    private static final DefaultRedisScript<Long> REVOKE = new DefaultRedisScript<>(PRELUDE + """
+            local deleted = redis.call('DEL', KEYS[1])
+            redis.call('ZREM', users, KEYS[1])
+            prune()
+            return deleted
+            """, Long.class);
+
+    // KEYS: 用户集合; ARGV: 当前时间
+    private static final DefaultRedisScript<Long> REVOKE_ALL = new DefaultRedisScript<>(PRELUDE + """
+            local keys = redis.call('ZRANGE', users, 0, -1)
+            for _, k in ipairs(keys) do
+              redis.call('DEL', k)
+            end
+            redis.call('DEL', users)
+            return #keys
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final JwtUtil jwtUtil;
+    private final JwtConfig jwtConfig;
+
+    public RedisRefreshTokenService(StringRedisTemplate redisTemplate, JwtUtil jwtUtil, JwtConfig jwtConfig) {
+        this.redisTemplate = redisTemplate;
+        this.jwtUtil = jwtUtil;
+        this.jwtConfig = jwtConfig;
+        log.info("刷新令牌存储: Redis");
+    }
+
+    @Override
+    public RefreshToken createRefreshToken(String userId, String username) {
+        RefreshToken token = newToken(userId, username);
+        redisTemplate.execute(CREATE, List.of(tokenKey(userId, token.getToken()), userKey(userId)),
+                userId, String.valueOf(ttlMillis()), now());
+        return token;
+    }
+
+    @Override
+    public Optional<RefreshToken> rotate(String token, String userId, String username) {
+        RefreshToken next = newToken(userId, username);
+        Long rotated = redisTemplate.execute(ROTATE,
+                List.of(tokenKey(userId, token), tokenKey(userId, next.getToken()), userKey(userId)),
+                userId, String.valueOf(ttlMillis()), now());
+        return rotated != null && rotated == 1 ? Optional.of(next) : Optional.empty();
+    }
+
+    @Override
+    public Optional<RefreshToken> findValidToken(String token) {
+        Claims claims = claimsOf(token);
+        if (claims == null || isExpired(claims)) {
+            return Optional.empty();
+        }
+        String userId = claims.get("userId", String.class);
+        if (!Objects.equals(userId, redisTemplate.opsForValue().get(tokenKey(userId, token)))) {
+            return Optional.empty();
+        }
+        return Optional.of(RefreshToken.builder()
+                .id(claims.getId())
+                .userId(userId)
+                .token(token)
+                .expiresAt(toLocal(claims.getExpiration().getTime()))
+                .createdAt(claims.getIssuedAt() == null ? null : toLocal(claims.getIssuedAt().getTime()))
+                .isRevoked(false)
+                .build());
+    }
+
+    @Override
+    public void revokeToken(String token) {
+        // 过期令牌的键已由TTL删除，但其userId仍可从声明中取得
+        Claims claims = claimsOf(token);
+        if (claims == null) {
+            return;
+        }
+        String userId = claims.get("userId", String.class);
+        redisTemplate.execute(REVOKE, List.of(tokenKey(userId, token), userKey(userId)), now());
+    }
+
+    @Override
+    public void revokeAllUserTokens(String userId) {
+        redisTemplate.execute(REVOKE_ALL, List.of(userKey(userId)), now());
+    }
+
+    @Override
+    public void cleanupExpiredTokens() {
+        // 令牌键随TTL过期，过期成员在下次写入时剔除，用户集合在最后一个令牌过期后同样过期
+    }
+
+    @Override
+    public boolean isValidRefreshToken(String token) {
+        return findValidToken(token).isPresent();
+    }
+
+    private RefreshToken newToken(String userId, String username) {
+        LocalDateTime now = LocalDateTime.now();
+        return RefreshToken.builder()
+                .id(UUID.randomUUID().toString())
+                .userId(userId)
+                .token(jwtUtil.generateRefreshToken(userId, username))
+                .expiresAt(now.plusSeconds(jwtConfig.getRefreshTokenExpiration()))
+                .createdAt(now)
+                .isRevoked(false)
+                .build();
+    }
+
+    private long ttlMillis() {
+        return jwtConfig.getRefreshTokenExpiration() * 1000L;
+    }
+
+    private static String now() {
+        return String.valueOf(System.currentTimeMillis());
+    }
+
+    private Claims claimsOf(String token) {
+        try {
+            return jwtUtil.getClaimsFromToken(token);
+        } catch (ExpiredJwtException e) {
+            return e.getClaims();
+        } catch (JwtException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static boolean isExpired(Claims claims) {
+        return claims.getExpiration() != null && claims.getExpiration().getTime() <= System.currentTimeMillis();
+    }
+
+    private static LocalDateTime toLocal(long epochMillis) {
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(epochMillis), ZoneId.systemDefault());
+    }
+
+    private static String userKey(String userId) {
+        return PREFIX + "{" + userId + "}";
+    }
+
+    private static String tokenKey(String userId, String token) {
+        return userKey(userId) + ":" + CacheKeys.sha256Hex(token);
+    }
+}
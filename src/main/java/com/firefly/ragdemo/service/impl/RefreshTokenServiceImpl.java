@@ -6,6 +6,7 @@ import com.firefly.ragdemo.secutiry.JwtUtil;
 import com.firefly.ragdemo.service.RefreshTokenService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -14,6 +15,7 @@ import java.util.Optional;
 import java.util.UUID;
 
 @Service
+@ConditionalOnProperty(prefix = "app.auth", name = "refresh-token-store", havingValue = "database", matchIfMissing = true)
 @RequiredArgsConstructor
 @Slf4j
 public class RefreshTokenServiceImpl implements RefreshTokenService {
@@ -39,6 +41,16 @@ public class RefreshTokenServiceImpl implements RefreshTokenService {
         return refreshToken;
     }
 
+    @Override
+    @Transactional
+    public Optional<RefreshToken> rotate(String token, String userId, String username) {
+        // 条件更新持有行锁，并发的两次刷新只有一次能吊销成功
+        if (refreshTokenMapper.revokeValidToken(token, userId, LocalDateTime.now()) == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(createRefreshToken(userId, username));
+    }
+
     @Override
     @Transactional(readOnly = true)
     public Optional<RefreshToken> findValidToken(String token) {
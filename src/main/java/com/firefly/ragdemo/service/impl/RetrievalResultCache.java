@@ -0,0 +1,124 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.util.CacheKeys;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 检索结果的Redis缓存，多节点共享。
+ * 键包含用户的索引版本号：用户分块发生变化时只需 INCR 版本号，旧版本的条目不再被命中并随TTL过期。
+ * 空结果与降级结果（如向量通道超时只用了词法结果）不缓存，下次查询重新检索。
+ */
+@Component
+@Slf4j
+public class RetrievalResultCache {
+
+    private static final String RESULT_PREFIX = "rag:ret:";
+    private static final String VERSION_PREFIX = "rag:ret:ver:";
+    private static final long REDIS_BACKOFF_MS = 30_000;
+    private static final TypeReference<List<String>> LIST_TYPE = new TypeReference<>() {};
+
+    private final RagConfig ragConfig;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final Counter hits;
+    private final Counter misses;
+    private volatile long redisDisabledUntil;
+
+    public RetrievalResultCache(RagConfig ragConfig,
+                                ObjectProvider<StringRedisTemplate> redisTemplate,
+                                ObjectMapper objectMapper,
+                                MeterRegistry meterRegistry) {
+        this.ragConfig = ragConfig;
+        this.redisTemplate = redisTemplate.getIfAvailable();
+        this.objectMapper = objectMapper;
+        this.hits = Counter.builder("rag.retrieval.cache").tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("rag.retrieval.cache").tag("result", "miss").register(meterRegistry);
+    }
+
+    public List<String> get(String userId, String query, int topK, int candidateLimit, Supplier<Result> loader) {
+        if (!usable()) {
+            return loader.get().contents();
+        }
+        String key;
+        try {
+            String version = redisTemplate.opsForValue().get(VERSION_PREFIX + userId);
+            key = RESULT_PREFIX + userId + ":" + (version == null ? "0" : version) + ":"
+                    + CacheKeys.sha256Hex(CacheKeys.normalizeQuery(query), String.valueOf(topK),
+                    String.valueOf(candidateLimit), fingerprint());
+            String cached = redisTemplate.opsForValue().get(key);
+            if (cached != null) {
+                hits.increment();
+                return objectMapper.readValue(cached, LIST_TYPE);
+            }
+        } catch (Exception e) {
+            redisFailed(e);
+            return loader.get().contents();
+        }
+        misses.increment();
+        Result result = loader.get();
+        if (result.degraded() || result.contents().isEmpty()) {
+            log.debug("检索结果为空或为降级结果，不缓存 (userId={}, degraded={})", userId, result.degraded());
+            return result.contents();
+        }
+        try {
+            redisTemplate.opsForValue().set(key, objectMapper.writeValueAsString(result.contents()), ragConfig.getResultCache().getTtl());
+        } catch (Exception e) {
+            redisFailed(e);
+        }
+        return result.contents();
+    }
+
+    /**
+     * 用户分块变化后调用（事务提交后）。不受失败退避影响，总是尝试
+     */
+    public void invalidate(String userId) {
+        if (!ragConfig.getResultCache().isEnabled() || redisTemplate == null) return;
+        try {
+            redisTemplate.opsForValue().increment(VERSION_PREFIX + userId);
+        } catch (Exception e) {
+            log.warn("检索结果缓存失效失败，旧结果将在TTL后过期 (userId={}): {}", userId, e.getMessage());
+        }
+    }
+
+    /**
+     * 一次检索的结果；degraded 表示某个通道超时或失败，结果不完整
+     */
+    public record Result(List<String> contents, boolean degraded) {
+
+        public static Result complete(List<String> contents) {
+            return new Result(contents, false);
+        }
+
+        public static Result degraded(List<String> contents) {
+            return new Result(contents, true);
+        }
+    }
+
+    /**
+     * 影响检索结果的配置，切换后不命中旧条目
+     */
+    private String fingerprint() {
+        return ragConfig.getSearchBackend() + "/" + ragConfig.getHybrid().isEnabled();
+    }
+
+    private boolean usable() {
+        return ragConfig.getResultCache().isEnabled() && redisTemplate != null
+                && System.currentTimeMillis() >= redisDisabledUntil;
+    }
+
+    private void redisFailed(Exception e) {
+        redisDisabledUntil = System.currentTimeMillis() + REDIS_BACKOFF_MS;
+        log.warn("检索结果缓存不可用，{}秒内直接检索: {}", REDIS_BACKOFF_MS / 1000, e.getMessage());
+    }
+}
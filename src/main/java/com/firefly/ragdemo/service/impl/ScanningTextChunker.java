@@ -0,0 +1,236 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.service.TextChunker;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单遍扫描的分块实现，切分结果与 SimpleTextChunker 完全一致（包括全空白分块）。
+ * 不做正则替换/切分，也不复制文本：每个分块只记录原文中的若干区间（合并的段落之间补一个换行），
+ * 滑窗的重叠部分不会重复存储，调用 toString() 时才生成字符串。
+ * 换行按 "\r\n"、"\r"、"\n" 计为一个字符，长度与偏移均以规范化后的文本为准。
+ */
+@Component
+public class ScanningTextChunker implements TextChunker {
+
+    private static final int CHUNK_SIZE = 800;
+    private static final int CHUNK_OVERLAP = 100;
+    private static final int STEP = CHUNK_SIZE - CHUNK_OVERLAP;
+
+    @Override
+    public List<String> split(String text) {
+        List<Span> spans = chunk(text);
+        List<String> chunks = new ArrayList<>(spans.size());
+        for (Span s : spans) {
+            chunks.add(s.toString());
+        }
+        return chunks;
+    }
+
+    @Override
+    public List<Span> chunk(CharSequence text) {
+        List<Span> chunks = new ArrayList<>();
+        if (text == null || isBlank(text)) return chunks;
+        new Scan(text, chunks).run();
+        return chunks;
+    }
+
+    private static boolean isBlank(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (!Character.isWhitespace(text.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    /**
+     * 一次扫描的状态：按空行（两个及以上连续换行）切出段落，段落合并到800字符，超长段落按800/700滑窗
+     */
+    private static final class Scan {
+        private final CharSequence text;
+        private final List<Span> out;
+
+        // 待合并的段落区间 [start0, end0, start1, end1, ...]
+        private int[] buffer = new int[8];
+        private int bufferRanges;
+        private int bufferLength;
+        private boolean bufferHasCr;
+
+        Scan(CharSequence text, List<Span> out) {
+            this.text = text;
+            this.out = out;
+        }
+
+        void run() {
+            int n = text.length();
+            int paraStart = 0;
+            int paraLength = 0;
+            boolean paraHasCr = false;
+            int i = 0;
+            while (i < n) {
+                char c = text.charAt(i);
+                if (c != '\n' && c != '\r') {
+                    paraLength++;
+                    i++;
+                    continue;
+                }
+                // 连续换行：统计个数（"\r\n" 计为一个）
+                int runStart = i;
+                int newlines = 0;
+                boolean runHasCr = false;
+                while (i < n) {
+                    char d = text.charAt(i);
+                    if (d == '\r') {
+                        runHasCr = true;
+                        i += (i + 1 < n && text.charAt(i + 1) == '\n') ? 2 : 1;
+                    } else if (d == '\n') {
+                        i++;
+                    } else {
+                        break;
+                    }
+                    newlines++;
+                }
+                if (newlines >= 2) {
+                    paragraph(paraStart, runStart, paraLength, paraHasCr);
+                    paraStart = i;
+                    paraLength = 0;
+                    paraHasCr = false;
+                } else {
+                    paraLength++;
+                    paraHasCr |= runHasCr;
+                }
+            }
+            // 与 String.split 相同：末尾的空段落不计入
+            if (paraLength > 0) {
+                paragraph(paraStart, n, paraLength, paraHasCr);
+            }
+            if (bufferLength > 0) flushBuffer();
+        }
+
+        private void paragraph(int start, int end, int length, boolean hasCr) {
+            if (length == 0) {
+                // 仅出现在文本以空行开头时，对结果没有影响
+                return;
+            }
+            if (bufferLength + length + 1 <= CHUNK_SIZE) {
+                if (bufferLength > 0) bufferLength++;
+                if (bufferRanges * 2 == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[bufferRanges * 2] = start;
+                buffer[bufferRanges * 2 + 1] = end;
+                bufferRanges++;
+                bufferLength += length;
+                bufferHasCr |= hasCr;
+                return;
+            }
+            if (bufferLength > 0) flushBuffer();
+            if (length <= CHUNK_SIZE) {
+                out.add(new Span(text, new int[]{start, end}, length, hasCr));
+                return;
+            }
+            if (!hasCr) {
+                for (int i = 0; i < length; i += STEP) {
+                    int windowEnd = Math.min(length, i + CHUNK_SIZE);
+                    out.add(new Span(text, new int[]{start + i, start + windowEnd}, windowEnd - i, false));
+                }
+                return;
+            }
+            // 含 "\r" 的长段落：规范化偏移到原文偏移的映射
+            int[] offsets = new int[length + 1];
+            int k = 0;
+            for (int p = start; p < end; p++) {
+                offsets[k++] = p;
+                if (text.charAt(p) == '\r' && p + 1 < end && text.charAt(p + 1) == '\n') p++;
+            }
+            offsets[length] = end;
+            for (int i = 0; i < length; i += STEP) {
+                int windowEnd = Math.min(length, i + CHUNK_SIZE);
+                out.add(new Span(text, new int[]{offsets[i], offsets[windowEnd]}, windowEnd - i, true));
+            }
+        }
+
+        private void flushBuffer() {
+            out.add(new Span(text, Arrays.copyOf(buffer, bufferRanges * 2), bufferLength, bufferHasCr));
+            bufferRanges = 0;
+            bufferLength = 0;
+            bufferHasCr = false;
+        }
+    }
+
+    /**
+     * 分块视图：原文中的若干区间，区间之间以一个换行连接
+     */
+    public static final class Span implements CharSequence {
+        private final CharSequence source;
+        private final int[] ranges;
+        private final int length;
+        private final boolean hasCr;
+        private String value;
+
+        Span(CharSequence source, int[] ranges, int length, boolean hasCr) {
+            this.source = source;
+            this.ranges = ranges;
+            this.length = length;
+            this.hasCr = hasCr;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) throw new IndexOutOfBoundsException(index);
+            if (hasCr) return toString().charAt(index);
+            for (int r = 0; r < ranges.length; r += 2) {
+                int size = ranges[r + 1] - ranges[r];
+                if (index < size) return source.charAt(ranges[r] + index);
+                if (index == size) return '\n';
+                index -= size + 1;
+            }
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            String s = value;
+            if (s == null) {
+                s = materialize();
+                value = s;
+            }
+            return s;
+        }
+
+        private String materialize() {
+            if (!hasCr && ranges.length == 2) {
+                return source.subSequence(ranges[0], ranges[1]).toString();
+            }
+            StringBuilder sb = new StringBuilder(length);
+            for (int r = 0; r < ranges.length; r += 2) {
+                if (r > 0) sb.append('\n');
+                int end = ranges[r + 1];
+                if (!hasCr) {
+                    sb.append(source, ranges[r], end);
+                    continue;
+                }
+                for (int p = ranges[r]; p < end; p++) {
+                    char c = source.charAt(p);
+                    if (c == '\r') {
+                        sb.append('\n');
+                        if (p + 1 < end && source.charAt(p + 1) == '\n') p++;
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.DocumentChunkMapper;
+import com.firefly.ragdemo.service.VectorIndexService;
+import com.firefly.ragdemo.util.VectorUtils;
+import com.firefly.ragdemo.vector.TopK;
+import com.firefly.ragdemo.vector.VectorOps;
+import com.firefly.ragdemo.vector.VectorSegment;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Stream;
+
+/**
+ * 基于内存映射段文件的精确检索。每个用户一个目录，每个已索引文件一个段；
+ * 删除文件即删除对应段，因此无需墓碑和合并。重启后只需重新映射即可使用。
+ * 流式索引的每一批追加到该文件的段末尾；文件替换时按旧段去掉已删除的分块后重写，不再读取数据库。
+ * 同一用户的段的修改与加载按用户串行。
+ */
+@Service
+@ConditionalOnProperty(prefix = "app.rag", name = "search-backend", havingValue = "mmap")
+@RequiredArgsConstructor
+@Slf4j
+public class SegmentVectorIndexServiceImpl implements VectorIndexService {
+
+    // 存在该标记说明用户目录已包含数据库中的全部分块
+    private static final String COMPLETE_MARKER = ".complete";
+
+    private final DocumentChunkMapper documentChunkMapper;
+
+    @Value("${app.file.upload-dir:uploads}")
+    private String uploadDir;
+
+    private final Map<String, List<VectorSegment>> segments = new ConcurrentHashMap<>();
+    private final Map<String, Object> userLocks = new ConcurrentHashMap<>();
+
+    private final ThreadLocal<float[]> scratch = ThreadLocal.withInitial(() -> new float[0]);
+
+    @Override
+    public List<String> search(String userId, float[] query, int topK, int candidateLimit) {
+        // 精确扫描，无需候选集
+        List<VectorSegment> userSegments = loaded(userId);
+        if (userSegments.isEmpty()) return Collections.emptyList();
+        float[] q = VectorUtils.normalize(query);
+        float[] buf = scratch.get();
+        if (buf.length < q.length) {
+            buf = new float[q.length];
+            scratch.set(buf);
+        }
+        TopK<String> collector = new TopK<>(topK);
+        for (VectorSegment segment : userSegments) {
+            segment.scan(q, buf, collector);
+        }
+        List<String> ids = new ArrayList<>(collector.size());
+        for (int i = 0; i < collector.size(); i++) {
+            ids.add(collector.item(i));
+        }
+        return ids;
+    }
+
+    @Override
+    public void addChunks(String userId, List<DocumentChunk> chunks) {
+        if (chunks.isEmpty()) return;
+        Path dir = userDir(userId);
+        synchronized (lock(userId)) {
+            List<VectorSegment> list = segments.get(userId);
+            try {
+                for (Map.Entry<String, List<DocumentChunk>> e : groupByFile(chunks).entrySet()) {
+                    String fileId = e.getKey();
+                    VectorSegment current = list == null ? null : find(list, fileId);
+                    // 本批次提交后、追加前该用户的段恰好从数据库重建过，已包含这些分块
+                    if (current != null && current.contains(e.getValue().get(0).getId())) continue;
+                    List<String> ids = new ArrayList<>();
+                    List<float[]> vectors = new ArrayList<>();
+                    collect(e.getValue(), ids, vectors);
+                    if (vectors.isEmpty()) continue;
+                    VectorSegment updated;
+                    if (Files.exists(VectorSegment.vectorFile(dir, fileId))) {
+                        // 段已存在（流式分批写入、文件替换）：只追加本批次
+                        updated = VectorSegment.append(dir, fileId, ids, vectors, current);
+                    } else {
+                        VectorSegment.write(dir, fileId, ids, vectors);
+                        updated = null;
+                    }
+                    // 已加载的用户直接替换映射；未加载的用户下次查询时会整体映射
+                    if (list != null) {
+                        replace(list, fileId, updated != null ? updated : VectorSegment.open(dir, fileId));
+                    }
+                }
+            } catch (IOException e) {
+                invalidate(userId);
+                throw new UncheckedIOException("写入向量段失败", e);
+            }
+        }
+    }
+
+    @Override
+    public void removeFile(String userId, String fileId) {
+        synchronized (lock(userId)) {
+            segments.computeIfPresent(userId, (k, list) -> {
+                list.removeIf(s -> s.getFileId().equals(fileId));
+                return list;
+            });
+            Path dir = userDir(userId);
+            try {
+                Files.deleteIfExists(VectorSegment.vectorFile(dir, fileId));
+                Files.deleteIfExists(VectorSegment.idsFile(dir, fileId));
+            } catch (IOException e) {
+                log.warn("删除向量段失败 (userId={}, fileId={}): {}", userId, fileId, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * 按现有的段去掉删除的分块后重写；新增的分块随后由 addChunks 追加
+     */
+    @Override
+    public void removeChunks(String userId, String fileId, List<String> chunkIds) {
+        if (chunkIds.isEmpty()) return;
+        Path dir = userDir(userId);
+        synchronized (lock(userId)) {
+            if (!Files.exists(VectorSegment.vectorFile(dir, fileId))) return;
+            List<VectorSegment> list = segments.get(userId);
+            try {
+                VectorSegment current = list == null ? null : find(list, fileId);
+                if (current == null) {
+                    current = VectorSegment.open(dir, fileId);
+                }
+                Set<String> removed = new HashSet<>(chunkIds);
+                List<String> ids = new ArrayList<>(current.getCount());
+                List<float[]> vectors = new ArrayList<>(current.getCount());
+                for (int row = 0; row < current.getCount(); row++) {
+                    if (!removed.contains(current.chunkId(row))) {
+                        ids.add(current.chunkId(row));
+                        vectors.add(current.vector(row));
+                    }
+                }
+                if (ids.isEmpty()) {
+                    removeFile(userId, fileId);
+                    return;
+                }
+                VectorSegment.write(dir, fileId, ids, vectors);
+                if (list != null) {
+                    replace(list, fileId, VectorSegment.open(dir, fileId));
+                }
+            } catch (IOException e) {
+                invalidate(userId);
+                throw new UncheckedIOException("重写向量段失败", e);
+            }
+        }
+    }
+
+    /**
+     * 删除完整标记，下次检索时按数据库重新生成该用户的全部段
+     */
+    @Override
+    public void invalidate(String userId) {
+        synchronized (lock(userId)) {
+            segments.remove(userId);
+            try {
+                Files.deleteIfExists(userDir(userId).resolve(COMPLETE_MARKER));
+            } catch (IOException e) {
+                log.warn("删除向量段完整标记失败 (userId={}): {}", userId, e.getMessage());
+            }
+        }
+    }
+
+    private List<VectorSegment> loaded(String userId) {
+        List<VectorSegment> list = segments.get(userId);
+        if (list != null) return list;
+        synchronized (lock(userId)) {
+            return segments.computeIfAbsent(userId, this::load);
+        }
+    }
+
+    private List<VectorSegment> load(String userId) {
+        long start = System.currentTimeMillis();
+        Path dir = userDir(userId);
+        try {
+            if (!Files.exists(dir.resolve(COMPLETE_MARKER))) {
+                rebuildFromDatabase(userId, dir);
+            }
+            List<VectorSegment> list;
+            try {
+                list = openAll(dir);
+            } catch (IOException e) {
+                // 追加过程中进程退出会留下与行数不一致的段
+                log.warn("向量段文件损坏，从数据库重新生成 (userId={}): {}", userId, e.getMessage());
+                rebuildFromDatabase(userId, dir);
+                list = openAll(dir);
+            }
+            log.info("映射向量段: userId={}, 段数={}, SIMD={}, 耗时={}ms",
+                    userId, list.size(), VectorOps.simdAvailable(), System.currentTimeMillis() - start);
+            return list;
+        } catch (IOException e) {
+            throw new UncheckedIOException("加载向量段失败", e);
+        }
+    }
+
+    private List<VectorSegment> openAll(Path dir) throws IOException {
+        List<VectorSegment> list = new CopyOnWriteArrayList<>();
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".vec")) {
+                    list.add(VectorSegment.open(dir, name.substring(0, name.length() - 4)));
+                }
+            }
+        }
+        return list;
+    }
+
+    private void rebuildFromDatabase(String userId, Path dir) throws IOException {
+        List<DocumentChunk> rows = documentChunkMapper.findVectorsByUser(userId);
+        Files.createDirectories(dir);
+        // 清掉旧段：其中可能有已在其它节点删除的文件
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path p : (Iterable<Path>) files::iterator) {
+                String name = p.getFileName().toString();
+                if (name.endsWith(".vec") || name.endsWith(".ids")) {
+                    Files.deleteIfExists(p);
+                }
+            }
+        }
+        for (Map.Entry<String, List<DocumentChunk>> e : groupByFile(rows).entrySet()) {
+            writeSegment(dir, e.getKey(), e.getValue());
+        }
+        Files.write(dir.resolve(COMPLETE_MARKER), new byte[0]);
+        log.info("从数据库生成向量段: userId={}, 分块数={}", userId, rows.size());
+    }
+
+    private void writeSegment(Path dir, String fileId, List<DocumentChunk> chunks) throws IOException {
+        List<String> ids = new ArrayList<>(chunks.size());
+        List<float[]> vectors = new ArrayList<>(chunks.size());
+        collect(chunks, ids, vectors);
+        if (!vectors.isEmpty()) {
+            VectorSegment.write(dir, fileId, ids, vectors);
+        }
+    }
+
+    private static void collect(List<DocumentChunk> chunks, List<String> ids, List<float[]> vectors) {
+        for (DocumentChunk c : chunks) {
+            float[] v = VectorUtils.vectorOf(c);
+            if (v == null || v.length == 0) continue;
+            ids.add(c.getId());
+            vectors.add(v);
+        }
+    }
+
+    private static VectorSegment find(List<VectorSegment> list, String fileId) {
+        for (VectorSegment s : list) {
+            if (s.getFileId().equals(fileId)) return s;
+        }
+        return null;
+    }
+
+    private static void replace(List<VectorSegment> list, String fileId, VectorSegment segment) {
+        for (int i = 0; i < list.size(); i++) {
+            if (list.get(i).getFileId().equals(fileId)) {
+                list.set(i, segment);
+                return;
+            }
+        }
+        list.add(segment);
+    }
+
+    private Object lock(String userId) {
+        return userLocks.computeIfAbsent(userId, k -> new Object());
+    }
+
+    private Map<String, List<DocumentChunk>> groupByFile(List<DocumentChunk> chunks) {
+        Map<String, List<DocumentChunk>> byFile = new LinkedHashMap<>();
+        for (DocumentChunk c : chunks) {
+            byFile.computeIfAbsent(c.getFileId(), k -> new ArrayList<>()).add(c);
+        }
+        return byFile;
+    }
+
+    private Path userDir(String userId) {
+        return Paths.get(uploadDir, "vectors", userId);
+    }
+}
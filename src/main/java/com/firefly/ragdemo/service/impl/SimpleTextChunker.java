@@ -1,12 +1,13 @@
 package com.firefly.ragdemo.service.impl;
 
 import com.firefly.ragdemo.service.TextChunker;
-import org.springframework.stereotype.Component;
 
 import java.util.ArrayList;
 import java.util.List;
 
-@Component
+/**
+ * 最初的分块实现，切分规则的基准：ScanningTextChunker 与 StreamingTextChunker 均以它为准做一致性校验
+ */
 public class SimpleTextChunker implements TextChunker {
 
     private static final int CHUNK_SIZE = 800;
@@ -0,0 +1,126 @@
+package com.firefly.ragdemo.service.impl;
+
+import java.util.function.Consumer;
+
+/**
+ * 增量版的 SimpleTextChunker：文本按字符流入，分块一旦确定立即交给 sink。
+ * 切分规则与 SimpleTextChunker 相同（按空行分段、段落合并到800字符、超长段落按800/700滑窗），
+ * 但只保留当前段落与待合并缓冲，内存占用与文档大小无关。
+ * 全空白的分块不会输出。非线程安全，每个文档一个实例。
+ */
+public class StreamingTextChunker {
+
+    private static final int CHUNK_SIZE = 800;
+    private static final int CHUNK_OVERLAP = 100;
+    private static final int STEP = CHUNK_SIZE - CHUNK_OVERLAP;
+
+    private final Consumer<String> sink;
+
+    // 已合并、尚未输出的段落
+    private final StringBuilder buffer = new StringBuilder();
+    // 当前段落；超长模式下只保留尚未输出的窗口部分
+    private final StringBuilder paragraph = new StringBuilder();
+    // 当前段落是否已超过 CHUNK_SIZE（已开始按滑窗输出）
+    private boolean longParagraph;
+    // 连续换行数，>=2 时为段落边界
+    private int pendingNewlines;
+    private boolean lastWasCr;
+
+    public StreamingTextChunker(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    public void accept(char[] ch, int start, int length) {
+        for (int i = start; i < start + length; i++) {
+            char c = ch[i];
+            if (c == '\r') {
+                lastWasCr = true;
+                onNewline();
+                continue;
+            }
+            if (c == '\n') {
+                // "\r\n" 视为一个换行
+                if (lastWasCr) {
+                    lastWasCr = false;
+                    continue;
+                }
+                onNewline();
+                continue;
+            }
+            lastWasCr = false;
+            if (pendingNewlines == 1) {
+                append('\n');
+            } else if (pendingNewlines >= 2) {
+                endParagraph();
+            }
+            pendingNewlines = 0;
+            append(c);
+        }
+    }
+
+    public void accept(String text) {
+        accept(text.toCharArray(), 0, text.length());
+    }
+
+    /**
+     * 文档结束，输出剩余内容
+     */
+    public void finish() {
+        if (pendingNewlines == 1) {
+            append('\n');
+        }
+        pendingNewlines = 0;
+        endParagraph();
+        if (buffer.length() > 0) {
+            emit(buffer.toString());
+            buffer.setLength(0);
+        }
+    }
+
+    private void onNewline() {
+        pendingNewlines++;
+    }
+
+    private void append(char c) {
+        paragraph.append(c);
+        if (!longParagraph && paragraph.length() > CHUNK_SIZE) {
+            // 段落无法与缓冲合并，也不能单独成块：先输出缓冲，再进入滑窗
+            longParagraph = true;
+            if (buffer.length() > 0) {
+                emit(buffer.toString());
+                buffer.setLength(0);
+            }
+        }
+        if (longParagraph && paragraph.length() >= CHUNK_SIZE + 1) {
+            // 窗口 [0, 800) 已完整，且确认后面还有内容
+            emit(paragraph.substring(0, CHUNK_SIZE));
+            paragraph.delete(0, STEP);
+        }
+    }
+
+    private void endParagraph() {
+        if (longParagraph) {
+            // 与 SimpleTextChunker 相同：剩余部分继续按步长输出，直到起点越过段落末尾
+            for (int i = 0; i < paragraph.length(); i += STEP) {
+                emit(paragraph.substring(i, Math.min(paragraph.length(), i + CHUNK_SIZE)));
+            }
+        } else if (buffer.length() + paragraph.length() + 1 <= CHUNK_SIZE) {
+            if (buffer.length() > 0) buffer.append('\n');
+            buffer.append(paragraph);
+        } else {
+            if (buffer.length() > 0) {
+                emit(buffer.toString());
+                buffer.setLength(0);
+            }
+            emit(paragraph.toString());
+        }
+        paragraph.setLength(0);
+        longParagraph = false;
+    }
+
+    private void emit(String chunk) {
+        if (!chunk.isBlank()) {
+            sink.accept(chunk);
+        }
+    }
+}
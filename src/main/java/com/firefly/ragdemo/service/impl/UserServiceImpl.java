@@ -1,23 +1,41 @@
 package com.firefly.ragdemo.service.impl;
 
+import com.firefly.ragdemo.config.JwtConfig;
 import com.firefly.ragdemo.entity.User;
 import com.firefly.ragdemo.mapper.UserMapper;
 import com.firefly.ragdemo.secutiry.CustomUserPrincipal;
 import com.firefly.ragdemo.service.UserService;
-import lombok.RequiredArgsConstructor;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Optional;
 
 @Service
-@RequiredArgsConstructor
 public class UserServiceImpl implements UserService {
 
     private final UserMapper userMapper;
+    // JWT认证时按userId缓存的用户信息；只缓存有效用户，条目数与存活时间都有上限
+    private final Cache<String, CustomUserPrincipal> principals;
+
+    public UserServiceImpl(UserMapper userMapper, JwtConfig jwtConfig, MeterRegistry meterRegistry) {
+        this.userMapper = userMapper;
+        this.principals = Caffeine.newBuilder()
+                .maximumSize(jwtConfig.getPrincipalCacheMaxSize())
+                .expireAfterWrite(Duration.ofSeconds(Math.max(0, jwtConfig.getPrincipalCacheTtl())))
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, principals, "user_principal");
+    }
 
     @Override
     @Transactional(readOnly = true)
@@ -27,12 +45,20 @@ public class UserServiceImpl implements UserService {
         return new CustomUserPrincipal(user);
     }
 
+    /**
+     * 不开启事务：DataSourceTransactionManager 开启事务时即占用连接，缓存命中时不应借出连接
+     */
     @Override
-    @Transactional(readOnly = true)
     public UserDetails loadUserByUserId(String userId) {
+        CustomUserPrincipal cached = principals.getIfPresent(userId);
+        if (cached != null) {
+            return cached;
+        }
         Optional<User> user = userMapper.findById(userId);
         if (user.isPresent() && Boolean.TRUE.equals(user.get().getIsActive())) {
-            return new CustomUserPrincipal(user.get());
+            CustomUserPrincipal principal = new CustomUserPrincipal(user.get());
+            principals.put(userId, principal);
+            return principal;
         }
         return null;
     }
@@ -78,4 +104,25 @@ public class UserServiceImpl implements UserService {
     public void updateLastLogin(String userId) {
         userMapper.updateLastLogin(userId, LocalDateTime.now());
     }
+
+    @Override
+    @Transactional
+    public void setActive(String userId, boolean active) {
+        userMapper.updateActive(userId, active);
+        evictPrincipal(userId);
+    }
+
+    @Override
+    public void evictPrincipal(String userId) {
+        principals.invalidate(userId);
+        // 事务提交前其它请求仍可能读到旧数据并写回缓存，提交后再失效一次
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    principals.invalidate(userId);
+                }
+            });
+        }
+    }
 } 
\ No newline at end of file
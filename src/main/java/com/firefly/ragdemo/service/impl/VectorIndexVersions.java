@@ -0,0 +1,93 @@
+package com.firefly.ragdemo.service.impl;
+
+import com.firefly.ragdemo.config.RagConfig;
+import com.firefly.ragdemo.service.VectorIndexService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 多节点下本地向量索引（hnsw/mmap/quantized）的失效：任一节点在事务提交后修改了用户的分块，就对Redis中该用户的版本号 INCR；
+ * 各节点记录自己的索引对应的版本号，检索前与Redis比对，落后时丢弃本地索引，由检索从数据库重建。
+ * 本节点自己的修改已同步应用到本地索引，只有版本号恰好前进1（期间没有其它节点的修改）时才沿用本地索引。
+ * 节点重启后没有记录，首次检索时同样重建（重启期间其它节点可能修改过分块）。Redis不可用时退避，期间按单节点处理。
+ */
+@Component
+@Slf4j
+public class VectorIndexVersions {
+
+    private static final String VERSION_PREFIX = "rag:idx:ver:";
+    private static final long REDIS_BACKOFF_MS = 30_000;
+
+    private final RagConfig ragConfig;
+    private final StringRedisTemplate redisTemplate;
+    private final Optional<VectorIndexService> vectorIndexService;
+    // 本节点各用户的本地索引对应的版本号
+    private final Map<String, Long> applied = new ConcurrentHashMap<>();
+    private volatile long redisDisabledUntil;
+
+    public VectorIndexVersions(RagConfig ragConfig,
+                               ObjectProvider<StringRedisTemplate> redisTemplate,
+                               Optional<VectorIndexService> vectorIndexService) {
+        this.ragConfig = ragConfig;
+        this.redisTemplate = redisTemplate.getIfAvailable();
+        this.vectorIndexService = vectorIndexService;
+    }
+
+    /**
+     * 检索前调用：本地索引落后于Redis中的版本时丢弃
+     */
+    public void beforeSearch(String userId) {
+        if (!usable()) return;
+        long current;
+        try {
+            String value = redisTemplate.opsForValue().get(VERSION_PREFIX + userId);
+            current = value == null ? 0 : Long.parseLong(value);
+        } catch (Exception e) {
+            redisFailed(e);
+            return;
+        }
+        Long previous = applied.put(userId, current);
+        if (previous == null || previous != current) {
+            if (previous != null) {
+                log.info("用户分块已被其它节点修改，丢弃本地向量索引 (userId={}, 版本 {} -> {})", userId, previous, current);
+            }
+            vectorIndexService.ifPresent(index -> index.invalidate(userId));
+        }
+    }
+
+    /**
+     * 本节点修改了用户的分块并已应用到本地索引后调用（事务提交后）
+     */
+    public void afterLocalChange(String userId) {
+        if (!ragConfig.getIndexSync().isEnabled() || redisTemplate == null || vectorIndexService.isEmpty()) return;
+        Long next;
+        try {
+            next = redisTemplate.opsForValue().increment(VERSION_PREFIX + userId);
+        } catch (Exception e) {
+            log.warn("向量索引版本号更新失败，其它节点可能继续使用旧索引 (userId={}): {}", userId, e.getMessage());
+            return;
+        }
+        if (next == null) return;
+        Long kept = applied.computeIfPresent(userId, (k, previous) -> previous == next - 1 ? next : null);
+        if (kept == null) {
+            // 本地索引已落后（或从未与Redis比对过），无法确定是否包含其它节点的修改
+            vectorIndexService.get().invalidate(userId);
+        }
+    }
+
+    private boolean usable() {
+        return ragConfig.getIndexSync().isEnabled() && redisTemplate != null && vectorIndexService.isPresent()
+                && System.currentTimeMillis() >= redisDisabledUntil;
+    }
+
+    private void redisFailed(Exception e) {
+        redisDisabledUntil = System.currentTimeMillis() + REDIS_BACKOFF_MS;
+        log.warn("向量索引版本号不可用，{}秒内不做跨节点失效检查: {}", REDIS_BACKOFF_MS / 1000, e.getMessage());
+    }
+}
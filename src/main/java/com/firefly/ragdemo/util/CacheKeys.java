@@ -0,0 +1,53 @@
+package com.firefly.ragdemo.util;
+
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.HexFormat;
+import java.util.Locale;
+
+public final class CacheKeys {
+
+    private CacheKeys() {}
+
+    /**
+     * 查询文本规范化：NFKC、去首尾空白、合并空白、小写
+     */
+    public static String normalizeQuery(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFKC)
+                .strip()
+                .replaceAll("\\s+", " ")
+                .toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 分块内容的 SHA-256（UTF-8），与 sha256Hex(content) 相同，但不要求先生成字符串
+     */
+    public static String contentHash(CharSequence content) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(content)));
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 各部分以 \0 分隔后取 SHA-256，返回64位十六进制串
+     */
+    public static String sha256Hex(String... parts) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            for (int i = 0; i < parts.length; i++) {
+                if (i > 0) md.update((byte) 0);
+                md.update(parts[i].getBytes(StandardCharsets.UTF_8));
+            }
+            return HexFormat.of().formatHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
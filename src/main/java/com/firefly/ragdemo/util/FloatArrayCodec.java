@@ -0,0 +1,104 @@
+package com.firefly.ragdemo.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * embedding 的二进制存储格式：1字节格式标记 + 小端序分量。
+ * float32 每维4字节；float16 每维2字节（IEEE 754 半精度，舍入到最近偶数），读取时按标记自动识别。
+ */
+public final class FloatArrayCodec {
+
+    public static final byte FORMAT_FLOAT32 = 'F';
+    public static final byte FORMAT_FLOAT16 = 'H';
+
+    private FloatArrayCodec() {}
+
+    public static byte[] encode(float[] v, boolean half) {
+        if (half) {
+            byte[] out = new byte[1 + v.length * 2];
+            out[0] = FORMAT_FLOAT16;
+            for (int i = 0, p = 1; i < v.length; i++, p += 2) {
+                short h = toHalf(v[i]);
+                out[p] = (byte) h;
+                out[p + 1] = (byte) (h >>> 8);
+            }
+            return out;
+        }
+        byte[] out = new byte[1 + v.length * 4];
+        out[0] = FORMAT_FLOAT32;
+        ByteBuffer.wrap(out, 1, v.length * 4).slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().put(v);
+        return out;
+    }
+
+    public static float[] decode(byte[] bytes) {
+        if (bytes == null) return null;
+        if (bytes.length == 0) return new float[0];
+        byte format = bytes[0];
+        if (format == FORMAT_FLOAT32) {
+            float[] out = new float[(bytes.length - 1) / 4];
+            ByteBuffer.wrap(bytes, 1, out.length * 4).slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(out);
+            return out;
+        }
+        if (format == FORMAT_FLOAT16) {
+            float[] out = new float[(bytes.length - 1) / 2];
+            for (int i = 0, p = 1; i < out.length; i++, p += 2) {
+                out[i] = fromHalf((short) ((bytes[p] & 0xFF) | (bytes[p + 1] << 8)));
+            }
+            return out;
+        }
+        throw new IllegalArgumentException("未知的向量存储格式: " + format);
+    }
+
+    static short toHalf(float f) {
+        int bits = Float.floatToRawIntBits(f);
+        int sign = (bits >>> 16) & 0x8000;
+        int exp = (bits >>> 23) & 0xFF;
+        int mant = bits & 0x7FFFFF;
+        if (exp == 0xFF) {
+            // Inf / NaN
+            return (short) (sign | 0x7C00 | (mant != 0 ? 0x200 : 0));
+        }
+        int e = exp - 127 + 15;
+        if (e >= 0x1F) {
+            return (short) (sign | 0x7C00);
+        }
+        if (e <= 0) {
+            // 非规格化数或下溢为0
+            if (e < -10) return (short) sign;
+            mant |= 0x800000;
+            int shift = 14 - e;
+            int half = mant >>> shift;
+            int rem = mant & ((1 << shift) - 1);
+            int mid = 1 << (shift - 1);
+            if (rem > mid || (rem == mid && (half & 1) != 0)) half++;
+            return (short) (sign | half);
+        }
+        int half = (e << 10) | (mant >>> 13);
+        int rem = mant & 0x1FFF;
+        // 进位可能溢出到指数位，结果仍然正确（最大时变为Inf）
+        if (rem > 0x1000 || (rem == 0x1000 && (half & 1) != 0)) half++;
+        return (short) (sign | half);
+    }
+
+    static float fromHalf(short h) {
+        int sign = (h & 0x8000) << 16;
+        int exp = (h >>> 10) & 0x1F;
+        int mant = h & 0x3FF;
+        if (exp == 0x1F) {
+            return Float.intBitsToFloat(sign | 0x7F800000 | (mant << 13));
+        }
+        if (exp == 0) {
+            if (mant == 0) return Float.intBitsToFloat(sign);
+            // 非规格化：规格化后再转换
+            int e = -1;
+            do {
+                mant <<= 1;
+                e++;
+            } while ((mant & 0x400) == 0);
+            mant &= 0x3FF;
+            return Float.intBitsToFloat(sign | ((127 - 15 - e) << 23) | (mant << 13));
+        }
+        return Float.intBitsToFloat(sign | ((exp - 15 + 127) << 23) | (mant << 13));
+    }
+}
@@ -0,0 +1,238 @@
+package com.firefly.ragdemo.util;
+
+import org.reactivestreams.Subscription;
+import reactor.core.CoreSubscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Operators;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.context.Context;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 把流式增量（如LLM逐token输出）合并为帧：增量经 JsonEscaper 转义后直接追加到当前帧，
+ * 帧内容达到 maxChars，或帧中第一个增量到达后经过 window 时发出，帧为 prefix + 内容 + suffix。
+ * window 为0时每个增量单独成帧。
+ * 背压：下游没有需求时继续合并，帧满后停止向上游请求，直到下游取走该帧。
+ */
+public final class FrameCoalescer {
+
+    private FrameCoalescer() {
+    }
+
+    public static Flux<String> coalesce(Flux<? extends CharSequence> deltas, String prefix, String suffix,
+                                        int maxChars, Duration window, Scheduler timer) {
+        return Flux.from(actual -> deltas.subscribe(
+                new CoalescingSubscriber(Operators.toCoreSubscriber(actual), prefix, suffix, Math.max(1, maxChars), window, timer)));
+    }
+
+    private static final class CoalescingSubscriber implements CoreSubscriber<CharSequence>, Subscription {
+
+        private final CoreSubscriber<? super String> actual;
+        private final String prefix;
+        private final String suffix;
+        private final int maxChars;
+        private final long windowNanos;
+        private final Scheduler timer;
+        private final StringBuilder content = new StringBuilder();
+
+        // 以下状态由 this 保护
+        private Subscription upstream;
+        private long demand;
+        private boolean upstreamPending;
+        private boolean windowElapsed;
+        private Disposable windowTask;
+        // 每个帧的计时器编号，已取消但仍触发的旧计时器不影响新帧
+        private long windowId;
+        private boolean done;
+        private Throwable error;
+        private boolean cancelled;
+        private boolean terminated;
+        private boolean draining;
+        private boolean missed;
+
+        CoalescingSubscriber(CoreSubscriber<? super String> actual, String prefix, String suffix,
+                             int maxChars, Duration window, Scheduler timer) {
+            this.actual = actual;
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.maxChars = maxChars;
+            this.windowNanos = window == null ? 0 : window.toNanos();
+            this.timer = timer;
+        }
+
+        @Override
+        public Context currentContext() {
+            return actual.currentContext();
+        }
+
+        @Override
+        public void onSubscribe(Subscription s) {
+            synchronized (this) {
+                if (!Operators.validate(upstream, s)) {
+                    return;
+                }
+                upstream = s;
+            }
+            actual.onSubscribe(this);
+            drain();
+        }
+
+        @Override
+        public void onNext(CharSequence delta) {
+            synchronized (this) {
+                upstreamPending = false;
+                if (cancelled || done) {
+                    return;
+                }
+                boolean first = content.length() == 0;
+                JsonEscaper.append(content, delta);
+                if (first && content.length() > 0) {
+                    if (windowNanos <= 0) {
+                        windowElapsed = true;
+                    } else {
+                        long id = ++windowId;
+                        windowTask = timer.schedule(() -> onWindow(id), windowNanos, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            synchronized (this) {
+                if (done) {
+                    Operators.onErrorDropped(t, actual.currentContext());
+                    return;
+                }
+                done = true;
+                error = t;
+            }
+            drain();
+        }
+
+        @Override
+        public void onComplete() {
+            synchronized (this) {
+                done = true;
+            }
+            drain();
+        }
+
+        @Override
+        public void request(long n) {
+            if (!Operators.validate(n)) {
+                return;
+            }
+            synchronized (this) {
+                demand = Operators.addCap(demand, n);
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            Subscription s;
+            synchronized (this) {
+                if (cancelled) {
+                    return;
+                }
+                cancelled = true;
+                cancelWindow();
+                s = upstream;
+            }
+            if (s != null) {
+                s.cancel();
+            }
+        }
+
+        private void onWindow(long id) {
+            synchronized (this) {
+                if (id != windowId || content.length() == 0) {
+                    return;
+                }
+                windowTask = null;
+                windowElapsed = true;
+            }
+            drain();
+        }
+
+        /**
+         * 信号可能来自上游、下游与计时器三个线程，串行执行：发出就绪的帧、终止信号，并在帧未满时向上游请求下一个增量。
+         * 回调下游与上游时不持有锁
+         */
+        private void drain() {
+            synchronized (this) {
+                if (draining) {
+                    missed = true;
+                    return;
+                }
+                draining = true;
+            }
+            for (;;) {
+                String frame = null;
+                boolean terminate = false;
+                Throwable failure = null;
+                Subscription requestFrom = null;
+                synchronized (this) {
+                    missed = false;
+                    if (cancelled || terminated) {
+                        draining = false;
+                        return;
+                    }
+                    int len = content.length();
+                    boolean ready = len > 0 && (len >= maxChars || windowElapsed || done);
+                    if (ready && demand > 0) {
+                        frame = new StringBuilder(prefix.length() + len + suffix.length())
+                                .append(prefix).append(content).append(suffix).toString();
+                        content.setLength(0);
+                        windowElapsed = false;
+                        cancelWindow();
+                        if (demand != Long.MAX_VALUE) {
+                            demand--;
+                        }
+                    } else if (len == 0 && done) {
+                        terminated = true;
+                        terminate = true;
+                        failure = error;
+                    }
+                    if (!done && !upstreamPending && upstream != null && content.length() < maxChars) {
+                        upstreamPending = true;
+                        requestFrom = upstream;
+                    }
+                }
+                if (frame != null) {
+                    actual.onNext(frame);
+                }
+                if (terminate) {
+                    if (failure != null) {
+                        actual.onError(failure);
+                    } else {
+                        actual.onComplete();
+                    }
+                    return;
+                }
+                if (requestFrom != null) {
+                    requestFrom.request(1);
+                }
+                synchronized (this) {
+                    if (!missed && frame == null) {
+                        draining = false;
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void cancelWindow() {
+            windowId++;
+            if (windowTask != null) {
+                windowTask.dispose();
+                windowTask = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.firefly.ragdemo.util;
+
+/**
+ * JSON字符串内容的转义，直接追加到目标 StringBuilder，不生成中间字符串。
+ * 转义引号、反斜杠与全部控制字符（U+0000–U+001F），以及在JS中视为换行的 U+2028/U+2029
+ */
+public final class JsonEscaper {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private JsonEscaper() {
+    }
+
+    public static StringBuilder append(StringBuilder out, CharSequence s) {
+        int len = s.length();
+        int run = 0;
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029') {
+                continue;
+            }
+            // 无需转义的连续片段整体追加
+            out.append(s, run, i);
+            run = i + 1;
+            switch (c) {
+                case '"' -> out.append("\\\"");
+                case '\\' -> out.append("\\\\");
+                case '\n' -> out.append("\\n");
+                case '\r' -> out.append("\\r");
+                case '\t' -> out.append("\\t");
+                case '\b' -> out.append("\\b");
+                case '\f' -> out.append("\\f");
+                default -> out.append("\\u")
+                        .append(HEX[(c >> 12) & 0xF]).append(HEX[(c >> 8) & 0xF])
+                        .append(HEX[(c >> 4) & 0xF]).append(HEX[c & 0xF]);
+            }
+        }
+        return out.append(s, run, len);
+    }
+}
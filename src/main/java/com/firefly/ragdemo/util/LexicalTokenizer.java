@@ -0,0 +1,133 @@
+package com.firefly.ragdemo.util;
+
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * 面向中文 + C++ 混合文本的词法切分，结果直接作为 tsvector 词位（不再经过 PostgreSQL 的分词）：
+ * <ul>
+ *     <li>标识符整体保留（含 ::、_、.），如 std::unique_ptr，同时拆出 std、unique_ptr、unique、ptr</li>
+ *     <li>连续汉字切成二元组，单字则保留单字</li>
+ *     <li>统一小写，去重</li>
+ * </ul>
+ */
+public final class LexicalTokenizer {
+
+    private static final int MAX_TOKEN_LENGTH = 100;
+
+    private LexicalTokenizer() {}
+
+    public static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        if (text == null || text.isEmpty()) return tokens;
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            if (isIdentifierStart(c)) {
+                int start = i;
+                while (i < len && isIdentifierPart(text, i)) i++;
+                addIdentifier(tokens, text.substring(start, i));
+            } else if (isCjk(c)) {
+                int start = i;
+                while (i < len && isCjk(text.charAt(i))) i++;
+                addCjk(tokens, text, start, i);
+            } else {
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * 空格分隔的词位串，写库时用 string_to_array 还原
+     */
+    public static String toLexemes(String text) {
+        return String.join(" ", tokenize(text));
+    }
+
+    /**
+     * 构造 tsquery：各词位加引号按字面匹配，以 | 连接，由 ts_rank 决定命中多者优先
+     */
+    public static String toTsQuery(String text) {
+        Set<String> tokens = tokenize(text);
+        if (tokens.isEmpty()) return null;
+        StringBuilder sb = new StringBuilder();
+        for (String t : tokens) {
+            if (sb.length() > 0) sb.append(" | ");
+            sb.append('\'');
+            for (int i = 0; i < t.length(); i++) {
+                char c = t.charAt(i);
+                if (c == '\'' || c == '\\') sb.append(c == '\'' ? '\'' : '\\');
+                sb.append(c);
+            }
+            sb.append('\'');
+        }
+        return sb.toString();
+    }
+
+    private static void addIdentifier(Set<String> tokens, String raw) {
+        // 去掉首尾的分隔符，如句末的 "."
+        int s = 0, e = raw.length();
+        while (s < e && (raw.charAt(s) == ':' || raw.charAt(s) == '.')) s++;
+        while (e > s && (raw.charAt(e - 1) == ':' || raw.charAt(e - 1) == '.')) e--;
+        if (s >= e) return;
+        String ident = raw.substring(s, e).toLowerCase(Locale.ROOT);
+        add(tokens, ident);
+        if (ident.indexOf(':') >= 0 || ident.indexOf('.') >= 0) {
+            for (String part : ident.split("[:.]+")) {
+                addParts(tokens, part);
+            }
+        } else {
+            addParts(tokens, ident);
+        }
+    }
+
+    private static void addParts(Set<String> tokens, String ident) {
+        add(tokens, ident);
+        if (ident.indexOf('_') >= 0) {
+            for (String part : ident.split("_+")) {
+                add(tokens, part);
+            }
+        }
+    }
+
+    private static void addCjk(Set<String> tokens, String text, int start, int end) {
+        if (end - start == 1) {
+            add(tokens, text.substring(start, end));
+            return;
+        }
+        for (int i = start; i + 1 < end; i++) {
+            add(tokens, text.substring(i, i + 2));
+        }
+    }
+
+    private static void add(Set<String> tokens, String token) {
+        if (token.isEmpty() || token.length() > MAX_TOKEN_LENGTH) return;
+        tokens.add(token);
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c < 128 && Character.isLetterOrDigit(c)) || c == '_';
+    }
+
+    private static boolean isIdentifierPart(String text, int i) {
+        char c = text.charAt(i);
+        if (isIdentifierStart(c)) return true;
+        // "::" 与 "." 仅在两侧都是标识符字符时视为标识符的一部分，如 std::move、obj.size
+        if (c == ':' || c == '.') {
+            int j = i;
+            while (j < text.length() && (text.charAt(j) == ':' || text.charAt(j) == '.')) j++;
+            return j < text.length() && isIdentifierStart(text.charAt(j));
+        }
+        return false;
+    }
+
+    private static boolean isCjk(char c) {
+        Character.UnicodeBlock block = Character.UnicodeBlock.of(c);
+        return block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS
+                || block == Character.UnicodeBlock.CJK_UNIFIED_IDEOGRAPHS_EXTENSION_A
+                || block == Character.UnicodeBlock.CJK_COMPATIBILITY_IDEOGRAPHS;
+    }
+}
@@ -22,4 +22,6 @@ public class PageResult<T> {
     private int totalPages;
 
     private List<T> items;
+
+    private String nextCursor; // 下一页的游标，没有更多数据时为null
 } 
\ No newline at end of file
@@ -0,0 +1,46 @@
+package com.firefly.ragdemo.util;
+
+/**
+ * 令牌桶：容量为每分钟配额，按配额/60秒连续补充。非线程安全，由调用方加锁
+ */
+public final class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double available;
+    private long lastRefill;
+
+    public TokenBucket(long perMinute) {
+        this.capacity = perMinute;
+        this.refillPerNano = perMinute / 60_000_000_000d;
+        this.available = perMinute;
+        this.lastRefill = System.nanoTime();
+    }
+
+    public double capacity() {
+        return capacity;
+    }
+
+    /**
+     * 桶中至少有 amount + reserve 时返回0，否则返回需要等待的纳秒数
+     */
+    public long nanosUntil(double amount, double reserve) {
+        refill();
+        double missing = Math.min(amount + reserve, capacity) - available;
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / refillPerNano);
+    }
+
+    /**
+     * 单次取用超过容量时按容量计，避免永远等不到
+     */
+    public void take(double amount) {
+        refill();
+        available -= Math.min(amount, capacity);
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        available = Math.min(capacity, available + (now - lastRefill) * refillPerNano);
+        lastRefill = now;
+    }
+}
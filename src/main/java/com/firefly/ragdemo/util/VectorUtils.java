@@ -0,0 +1,101 @@
+package com.firefly.ragdemo.util;
+
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.vector.VectorOps;
+
+import java.util.List;
+
+public final class VectorUtils {
+
+    private VectorUtils() {}
+
+    public static String toJsonArray(List<Double> vec) {
+        StringBuilder sb = new StringBuilder(vec.size() * 12 + 2);
+        sb.append('[');
+        for (int i = 0; i < vec.size(); i++) {
+            if (i > 0) sb.append(',');
+            // embedding 本身是float32，按float的最短表示输出即可无损
+            sb.append(vec.get(i).floatValue());
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    public static String toJsonArray(float[] vec) {
+        StringBuilder sb = new StringBuilder(vec.length * 12 + 2);
+        sb.append('[');
+        for (int i = 0; i < vec.length; i++) {
+            if (i > 0) sb.append(',');
+            sb.append(vec[i]);
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    public static float[] toFloatArray(List<Double> vec) {
+        float[] out = new float[vec.size()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = vec.get(i).floatValue();
+        }
+        return out;
+    }
+
+    /**
+     * 解析jsonb返回的数字数组文本，如 "[0.1, -0.2]"
+     */
+    public static float[] parseJsonArray(String json) {
+        if (json == null) return null;
+        int len = json.length();
+        int count = 0;
+        boolean hasDigit = false;
+        for (int i = 0; i < len; i++) {
+            char c = json.charAt(i);
+            if (c == ',') count++;
+            else if (c != '[' && c != ']' && !Character.isWhitespace(c)) hasDigit = true;
+        }
+        if (!hasDigit) return new float[0];
+        float[] out = new float[count + 1];
+        int idx = 0;
+        int start = -1;
+        for (int i = 0; i < len; i++) {
+            char c = json.charAt(i);
+            boolean sep = c == ',' || c == '[' || c == ']' || Character.isWhitespace(c);
+            if (!sep && start < 0) {
+                start = i;
+            } else if (sep && start >= 0) {
+                out[idx++] = Float.parseFloat(json.substring(start, i));
+                start = -1;
+            }
+        }
+        if (start >= 0) out[idx++] = Float.parseFloat(json.substring(start));
+        if (idx != out.length) {
+            throw new IllegalArgumentException("向量格式错误");
+        }
+        return out;
+    }
+
+    /**
+     * 优先取二进制列，未迁移的行回退解析JSONB
+     */
+    public static float[] vectorOf(DocumentChunk chunk) {
+        if (chunk.getEmbedding() != null) return chunk.getEmbedding();
+        return parseJsonArray(chunk.getEmbeddingJson());
+    }
+
+    public static float dot(float[] a, float[] b) {
+        return VectorOps.dot(a, b, a.length);
+    }
+
+    /**
+     * 返回单位化后的副本；零向量原样返回副本
+     */
+    public static float[] normalize(float[] v) {
+        float[] out = v.clone();
+        double norm = 0d;
+        for (float x : v) norm += (double) x * x;
+        if (norm == 0d) return out;
+        float inv = (float) (1d / Math.sqrt(norm));
+        for (int i = 0; i < out.length; i++) out[i] *= inv;
+        return out;
+    }
+}
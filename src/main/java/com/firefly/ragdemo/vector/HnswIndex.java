@@ -0,0 +1,333 @@
+package com.firefly.ragdemo.vector;
+
+import com.firefly.ragdemo.util.VectorUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 单用户的HNSW近邻图（Malkov &amp; Yashunin）。
+ * 向量写入时单位化，距离取 1 - 内积（即余弦距离）；删除采用墓碑标记，查询时跳过。
+ * 读写通过读写锁隔离：查询可并发，写入串行。
+ */
+public class HnswIndex {
+
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private final double levelMult;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private float[][] vectors = new float[16][];
+    private String[] chunkIds = new String[16];
+    private String[] fileIds = new String[16];
+    // links[node][level] 第0位为邻居数量，之后为邻居编号
+    private int[][][] links = new int[16][][];
+    private final BitSet deleted = new BitSet();
+    private final Map<String, Integer> nodeByChunkId = new HashMap<>();
+
+    private int size;
+    private int deletedCount;
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+    private int dimension = -1;
+
+    public HnswIndex(int m, int efConstruction) {
+        this.m = Math.max(2, m);
+        this.maxM0 = this.m * 2;
+        this.efConstruction = Math.max(efConstruction, this.m);
+        this.levelMult = 1d / Math.log(this.m);
+    }
+
+    public void add(String chunkId, String fileId, float[] vector) {
+        if (vector == null || vector.length == 0) return;
+        lock.writeLock().lock();
+        try {
+            if (nodeByChunkId.containsKey(chunkId)) return;
+            if (dimension < 0) {
+                dimension = vector.length;
+            } else if (dimension != vector.length) {
+                throw new IllegalArgumentException("向量维度不一致: " + vector.length + " != " + dimension);
+            }
+            float[] q = VectorUtils.normalize(vector);
+            int level = randomLevel();
+            int node = allocate(chunkId, fileId, q, level);
+
+            if (entryPoint < 0) {
+                entryPoint = node;
+                maxLevel = level;
+                return;
+            }
+
+            int ep = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                ep = greedyClosest(q, ep, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                List<Candidate> candidates = searchLayer(q, ep, efConstruction, l);
+                int maxConn = l == 0 ? maxM0 : m;
+                List<Candidate> selected = selectNeighbors(candidates, m);
+                int[] own = links[node][l];
+                for (Candidate c : selected) {
+                    own[++own[0]] = c.node;
+                    connect(c.node, node, l, maxConn);
+                }
+                ep = candidates.get(0).node;
+            }
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = node;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String chunkId) {
+        lock.writeLock().lock();
+        try {
+            Integer node = nodeByChunkId.remove(chunkId);
+            if (node != null && !deleted.get(node)) {
+                deleted.set(node);
+                deletedCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int removeFile(String fileId) {
+        lock.writeLock().lock();
+        try {
+            int removed = 0;
+            for (int i = 0; i < size; i++) {
+                if (!deleted.get(i) && fileId.equals(fileIds[i])) {
+                    deleted.set(i);
+                    nodeByChunkId.remove(chunkIds[i]);
+                    deletedCount++;
+                    removed++;
+                }
+            }
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * 返回按相似度降序排列的chunkId
+     */
+    public List<String> search(float[] query, int topK, int ef) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0 || topK <= 0 || size == deletedCount) return Collections.emptyList();
+            if (query.length != dimension) {
+                throw new IllegalArgumentException("查询向量维度不一致: " + query.length + " != " + dimension);
+            }
+            float[] q = VectorUtils.normalize(query);
+            int ep = entryPoint;
+            for (int l = maxLevel; l > 0; l--) {
+                ep = greedyClosest(q, ep, l);
+            }
+            // 墓碑节点会占用候选位，按删除比例放大ef
+            int effectiveEf = Math.max(ef, topK) + deletedCount * Math.max(ef, topK) / Math.max(1, size - deletedCount);
+            List<Candidate> candidates = searchLayer(q, ep, effectiveEf, 0);
+            List<String> result = new ArrayList<>(topK);
+            for (Candidate c : candidates) {
+                if (deleted.get(c.node)) continue;
+                result.add(chunkIds[c.node]);
+                if (result.size() >= topK) break;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * 节点总数（含墓碑节点），即占用内存的向量数
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int liveSize() {
+        lock.readLock().lock();
+        try {
+            return size - deletedCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public double deletedRatio() {
+        lock.readLock().lock();
+        try {
+            return size == 0 ? 0d : deletedCount / (double) size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int randomLevel() {
+        double r = ThreadLocalRandom.current().nextDouble();
+        return (int) Math.floor(-Math.log(Math.max(r, Double.MIN_VALUE)) * levelMult);
+    }
+
+    private int allocate(String chunkId, String fileId, float[] vector, int level) {
+        if (size == vectors.length) {
+            int cap = size * 2;
+            vectors = Arrays.copyOf(vectors, cap);
+            chunkIds = Arrays.copyOf(chunkIds, cap);
+            fileIds = Arrays.copyOf(fileIds, cap);
+            links = Arrays.copyOf(links, cap);
+        }
+        int node = size++;
+        vectors[node] = vector;
+        chunkIds[node] = chunkId;
+        fileIds[node] = fileId;
+        int[][] nodeLinks = new int[level + 1][];
+        for (int l = 0; l <= level; l++) {
+            nodeLinks[l] = new int[(l == 0 ? maxM0 : m) + 1];
+        }
+        links[node] = nodeLinks;
+        nodeByChunkId.put(chunkId, node);
+        return node;
+    }
+
+    private void connect(int from, int to, int level, int maxConn) {
+        int[] conn = links[from][level];
+        if (conn[0] < maxConn) {
+            conn[++conn[0]] = to;
+            return;
+        }
+        // 邻居已满：与新节点一起重新做启发式筛选
+        float[] base = vectors[from];
+        List<Candidate> candidates = new ArrayList<>(conn[0] + 1);
+        for (int i = 1; i <= conn[0]; i++) {
+            candidates.add(new Candidate(conn[i], distance(base, vectors[conn[i]])));
+        }
+        candidates.add(new Candidate(to, distance(base, vectors[to])));
+        Collections.sort(candidates);
+        List<Candidate> kept = selectNeighbors(candidates, maxConn);
+        conn[0] = 0;
+        for (Candidate c : kept) {
+            conn[++conn[0]] = c.node;
+        }
+    }
+
+    /**
+     * 启发式邻居选择：优先保留彼此分散的邻居，不足时用被剪掉的最近候选补齐。
+     * candidates 需按距离升序
+     */
+    private List<Candidate> selectNeighbors(List<Candidate> candidates, int limit) {
+        if (candidates.size() <= limit) return candidates;
+        List<Candidate> selected = new ArrayList<>(limit);
+        List<Candidate> pruned = new ArrayList<>();
+        for (Candidate c : candidates) {
+            if (selected.size() >= limit) break;
+            boolean good = true;
+            for (Candidate s : selected) {
+                if (distance(vectors[c.node], vectors[s.node]) < c.distance) {
+                    good = false;
+                    break;
+                }
+            }
+            if (good) selected.add(c);
+            else pruned.add(c);
+        }
+        for (int i = 0; i < pruned.size() && selected.size() < limit; i++) {
+            selected.add(pruned.get(i));
+        }
+        return selected;
+    }
+
+    private int greedyClosest(float[] q, int ep, int level) {
+        int current = ep;
+        float best = distance(q, vectors[current]);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            int[][] nodeLinks = links[current];
+            if (level >= nodeLinks.length) break;
+            int[] conn = nodeLinks[level];
+            for (int i = 1; i <= conn[0]; i++) {
+                float d = distance(q, vectors[conn[i]]);
+                if (d < best) {
+                    best = d;
+                    current = conn[i];
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 返回按距离升序排列的最多ef个候选
+     */
+    private List<Candidate> searchLayer(float[] q, int ep, int ef, int level) {
+        BitSet visited = new BitSet(size);
+        PriorityQueue<Candidate> frontier = new PriorityQueue<>();
+        PriorityQueue<Candidate> results = new PriorityQueue<>(Collections.reverseOrder());
+        Candidate start = new Candidate(ep, distance(q, vectors[ep]));
+        visited.set(ep);
+        frontier.add(start);
+        results.add(start);
+        while (!frontier.isEmpty()) {
+            Candidate c = frontier.poll();
+            if (c.distance > results.peek().distance && results.size() >= ef) break;
+            int[][] nodeLinks = links[c.node];
+            if (level >= nodeLinks.length) continue;
+            int[] conn = nodeLinks[level];
+            for (int i = 1; i <= conn[0]; i++) {
+                int n = conn[i];
+                if (visited.get(n)) continue;
+                visited.set(n);
+                float d = distance(q, vectors[n]);
+                if (results.size() < ef || d < results.peek().distance) {
+                    Candidate nc = new Candidate(n, d);
+                    frontier.add(nc);
+                    results.add(nc);
+                    if (results.size() > ef) results.poll();
+                }
+            }
+        }
+        List<Candidate> sorted = new ArrayList<>(results);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static float distance(float[] a, float[] b) {
+        return 1f - VectorUtils.dot(a, b);
+    }
+
+    private static final class Candidate implements Comparable<Candidate> {
+        final int node;
+        final float distance;
+
+        Candidate(int node, float distance) {
+            this.node = node;
+            this.distance = distance;
+        }
+
+        @Override
+        public int compareTo(Candidate o) {
+            return Float.compare(distance, o.distance);
+        }
+    }
+}
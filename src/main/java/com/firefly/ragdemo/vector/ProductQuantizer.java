@@ -0,0 +1,144 @@
+package com.firefly.ragdemo.vector;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 乘积量化：把向量切成 subspaces 段，每段用 k-means 训练出最多 256 个中心，
+ * 编码为每段一个字节的中心编号。查询时先算查询各段与所有中心的内积表（ADC），
+ * 每个编码的打分只需 subspaces 次查表。
+ */
+public class ProductQuantizer implements VectorCodec {
+
+    private final int dimension;
+    private final int subspaces;
+    private final int subDim;
+    private final int centroidCount;
+    // centroids[m][k * subDim + j]
+    private final float[][] centroids;
+
+    private ProductQuantizer(int dimension, int subspaces, int centroidCount, float[][] centroids) {
+        this.dimension = dimension;
+        this.subspaces = subspaces;
+        this.subDim = dimension / subspaces;
+        this.centroidCount = centroidCount;
+        this.centroids = centroids;
+    }
+
+    /**
+     * @param samples    训练样本，至少一个
+     * @param subspaces  需整除维度
+     * @param iterations k-means 迭代次数
+     */
+    public static ProductQuantizer train(List<float[]> samples, int subspaces, int iterations, long seed) {
+        int dimension = samples.get(0).length;
+        if (subspaces <= 0 || dimension % subspaces != 0) {
+            throw new IllegalArgumentException("子空间数需整除向量维度: " + subspaces + " / " + dimension);
+        }
+        int subDim = dimension / subspaces;
+        int k = Math.min(256, samples.size());
+        Random random = new Random(seed);
+        float[][] centroids = new float[subspaces][k * subDim];
+        int[] assign = new int[samples.size()];
+        for (int m = 0; m < subspaces; m++) {
+            int offset = m * subDim;
+            float[] c = centroids[m];
+            // 随机选取不重复样本作为初始中心
+            int[] perm = shuffledIndexes(samples.size(), random);
+            for (int i = 0; i < k; i++) {
+                System.arraycopy(samples.get(perm[i]), offset, c, i * subDim, subDim);
+            }
+            for (int it = 0; it < iterations; it++) {
+                for (int n = 0; n < samples.size(); n++) {
+                    assign[n] = nearest(samples.get(n), offset, c, k, subDim);
+                }
+                float[] sums = new float[k * subDim];
+                int[] counts = new int[k];
+                for (int n = 0; n < samples.size(); n++) {
+                    float[] v = samples.get(n);
+                    int base = assign[n] * subDim;
+                    for (int j = 0; j < subDim; j++) sums[base + j] += v[offset + j];
+                    counts[assign[n]]++;
+                }
+                for (int i = 0; i < k; i++) {
+                    if (counts[i] == 0) {
+                        // 空簇重新随机取样，避免中心浪费
+                        System.arraycopy(samples.get(random.nextInt(samples.size())), offset, c, i * subDim, subDim);
+                        continue;
+                    }
+                    for (int j = 0; j < subDim; j++) c[i * subDim + j] = sums[i * subDim + j] / counts[i];
+                }
+            }
+        }
+        return new ProductQuantizer(dimension, subspaces, k, centroids);
+    }
+
+    @Override
+    public byte[] encode(float[] vector) {
+        byte[] code = new byte[subspaces];
+        for (int m = 0; m < subspaces; m++) {
+            code[m] = (byte) nearest(vector, m * subDim, centroids[m], centroidCount, subDim);
+        }
+        return code;
+    }
+
+    @Override
+    public QueryScorer scorer(float[] query) {
+        float[] table = new float[subspaces * centroidCount];
+        for (int m = 0; m < subspaces; m++) {
+            float[] c = centroids[m];
+            int offset = m * subDim;
+            for (int i = 0; i < centroidCount; i++) {
+                float dot = 0f;
+                for (int j = 0; j < subDim; j++) dot += query[offset + j] * c[i * subDim + j];
+                table[m * centroidCount + i] = dot;
+            }
+        }
+        return code -> {
+            float sum = 0f;
+            for (int m = 0; m < subspaces; m++) {
+                sum += table[m * centroidCount + (code[m] & 0xFF)];
+            }
+            return sum;
+        };
+    }
+
+    @Override
+    public int codeBytes() {
+        return subspaces;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+
+    private static int nearest(float[] v, int offset, float[] c, int k, int subDim) {
+        int best = 0;
+        float bestDist = Float.MAX_VALUE;
+        for (int i = 0; i < k; i++) {
+            float d = 0f;
+            int base = i * subDim;
+            for (int j = 0; j < subDim; j++) {
+                float diff = v[offset + j] - c[base + j];
+                d += diff * diff;
+            }
+            if (d < bestDist) {
+                bestDist = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static int[] shuffledIndexes(int n, Random random) {
+        int[] idx = new int[n];
+        for (int i = 0; i < n; i++) idx[i] = i;
+        for (int i = n - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = idx[i];
+            idx[i] = idx[j];
+            idx[j] = t;
+        }
+        return idx;
+    }
+}
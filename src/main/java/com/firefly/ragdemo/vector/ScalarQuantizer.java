@@ -0,0 +1,50 @@
+package com.firefly.ragdemo.vector;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * int8 标量量化：每个向量按自身最大绝对值缩放到 [-127, 127]，
+ * 编码为 4 字节缩放因子 + dimension 字节分量，约为 float32 的 1/4
+ */
+public class ScalarQuantizer implements VectorCodec {
+
+    private final int dimension;
+
+    public ScalarQuantizer(int dimension) {
+        this.dimension = dimension;
+    }
+
+    @Override
+    public byte[] encode(float[] vector) {
+        float max = 0f;
+        for (float x : vector) max = Math.max(max, Math.abs(x));
+        float scale = max == 0f ? 0f : max / 127f;
+        byte[] code = new byte[Float.BYTES + dimension];
+        ByteBuffer.wrap(code).order(ByteOrder.LITTLE_ENDIAN).putFloat(scale);
+        if (scale > 0f) {
+            float inv = 1f / scale;
+            for (int i = 0; i < dimension; i++) {
+                code[Float.BYTES + i] = (byte) Math.round(vector[i] * inv);
+            }
+        }
+        return code;
+    }
+
+    @Override
+    public QueryScorer scorer(float[] query) {
+        return code -> {
+            float scale = ByteBuffer.wrap(code).order(ByteOrder.LITTLE_ENDIAN).getFloat(0);
+            float sum = 0f;
+            for (int i = 0; i < dimension; i++) {
+                sum += query[i] * code[Float.BYTES + i];
+            }
+            return sum * scale;
+        };
+    }
+
+    @Override
+    public int codeBytes() {
+        return Float.BYTES + dimension;
+    }
+}
@@ -0,0 +1,55 @@
+package com.firefly.ragdemo.vector;
+
+import java.util.Arrays;
+
+/**
+ * 固定容量的得分TopK收集器（得分越大越靠前），按插入排序维护，适合较小的K
+ */
+public class TopK<T> {
+
+    private final float[] scores;
+    private final Object[] items;
+    private int size;
+
+    public TopK(int k) {
+        this.scores = new float[Math.max(1, k)];
+        this.items = new Object[Math.max(1, k)];
+    }
+
+    /**
+     * 当前收集器中的最低分，未满时为负无穷
+     */
+    public float threshold() {
+        return size < scores.length ? Float.NEGATIVE_INFINITY : scores[size - 1];
+    }
+
+    public void offer(float score, T item) {
+        if (size == scores.length && score <= scores[size - 1]) return;
+        int pos = size < scores.length ? size++ : size - 1;
+        while (pos > 0 && scores[pos - 1] < score) {
+            scores[pos] = scores[pos - 1];
+            items[pos] = items[pos - 1];
+            pos--;
+        }
+        scores[pos] = score;
+        items[pos] = item;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public float score(int i) {
+        return scores[i];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T item(int i) {
+        return (T) items[i];
+    }
+
+    public void clear() {
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+    }
+}
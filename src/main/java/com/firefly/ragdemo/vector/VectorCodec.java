@@ -0,0 +1,20 @@
+package com.firefly.ragdemo.vector;
+
+/**
+ * 向量压缩编码。编码结果只用于粗排，最终排序仍以全精度向量为准
+ */
+public interface VectorCodec {
+
+    byte[] encode(float[] vector);
+
+    /**
+     * 为一次查询预计算打分器，score 返回与查询向量内积的近似值
+     */
+    QueryScorer scorer(float[] query);
+
+    int codeBytes();
+
+    interface QueryScorer {
+        float score(byte[] code);
+    }
+}
@@ -0,0 +1,61 @@
+package com.firefly.ragdemo.vector;
+
+/**
+ * 向量内积计算。运行时加载了 jdk.incubator.vector 模块（--add-modules jdk.incubator.vector）
+ * 时使用 SIMD 实现，否则退化为展开的标量循环。
+ * SIMD 实现单独编译（pom.xml 中的 compile-simd），这里按类名加载，其余代码的编译不依赖孵化模块。
+ */
+public final class VectorOps {
+
+    private static final Kernel SIMD = loadSimd();
+
+    private VectorOps() {}
+
+    public static boolean simdAvailable() {
+        return SIMD != null;
+    }
+
+    public static float dot(float[] a, float[] b, int length) {
+        if (SIMD != null) {
+            return SIMD.dot(a, b, length);
+        }
+        return scalarDot(a, b, length);
+    }
+
+    static float scalarDot(float[] a, float[] b, int length) {
+        float s0 = 0f, s1 = 0f, s2 = 0f, s3 = 0f;
+        int i = 0;
+        int bound = length - (length & 3);
+        for (; i < bound; i += 4) {
+            s0 += a[i] * b[i];
+            s1 += a[i + 1] * b[i + 1];
+            s2 += a[i + 2] * b[i + 2];
+            s3 += a[i + 3] * b[i + 3];
+        }
+        for (; i < length; i++) {
+            s0 += a[i] * b[i];
+        }
+        return (s0 + s1) + (s2 + s3);
+    }
+
+    private static Kernel loadSimd() {
+        if (Boolean.getBoolean("rag.vector.disableSimd")) return null;
+        try {
+            if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) return null;
+            Kernel kernel = (Kernel) Class.forName("com.firefly.ragdemo.vector.SimdVectorOps")
+                    .getDeclaredConstructor().newInstance();
+            // 触发一次以确认可用
+            kernel.dot(new float[16], new float[16], 16);
+            return kernel;
+        } catch (Throwable t) {
+            return null;
+        }
+    }
+
+    /**
+     * 内积实现，由 SimdVectorOps 实现
+     */
+    interface Kernel {
+        float dot(float[] a, float[] b, int length);
+    }
+}
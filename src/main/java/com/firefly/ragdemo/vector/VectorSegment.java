@@ -0,0 +1,242 @@
+package com.firefly.ragdemo.vector;
+
+import com.firefly.ragdemo.util.VectorUtils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 一个已索引文件的全部分块向量，对应磁盘上的两份文件：
+ * <ul>
+ *     <li>{fileId}.vec：16字节头（magic、版本、维度、行数）+ 连续的小端float32向量，写入前已单位化</li>
+ *     <li>{fileId}.ids：每行一个chunkId，与向量行一一对应</li>
+ * </ul>
+ * 读取时通过 FileChannel.map 映射，查询不复制整段数据。流式索引分批写入时在段末尾追加，不重写已有的行。
+ */
+public class VectorSegment {
+
+    private static final int MAGIC = 0x52564543; // "RVEC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+
+    private final String fileId;
+    // 追加时与新段共用，长度可能大于count；只读取前count个
+    private final String[] chunkIds;
+    private final int dimension;
+    private final int count;
+    private final FloatBuffer data;
+
+    private VectorSegment(String fileId, String[] chunkIds, int dimension, int count, FloatBuffer data) {
+        this.fileId = fileId;
+        this.chunkIds = chunkIds;
+        this.dimension = dimension;
+        this.count = count;
+        this.data = data;
+    }
+
+    public static Path vectorFile(Path dir, String fileId) {
+        return dir.resolve(fileId + ".vec");
+    }
+
+    public static Path idsFile(Path dir, String fileId) {
+        return dir.resolve(fileId + ".ids");
+    }
+
+    /**
+     * 先写临时文件再原子替换，避免进程中断留下半截段文件
+     */
+    public static void write(Path dir, String fileId, List<String> chunkIds, List<float[]> vectors) throws IOException {
+        if (chunkIds.size() != vectors.size() || vectors.isEmpty()) {
+            throw new IllegalArgumentException("分块与向量数量不一致");
+        }
+        int dimension = vectors.get(0).length;
+        Files.createDirectories(dir);
+        Path vecTmp = dir.resolve(fileId + ".vec.tmp");
+        Path idsTmp = dir.resolve(fileId + ".ids.tmp");
+
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_BYTES + vectors.size() * dimension * Float.BYTES)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(VERSION).putInt(dimension).putInt(vectors.size());
+        for (float[] v : vectors) {
+            if (v.length != dimension) {
+                throw new IllegalArgumentException("向量维度不一致: " + v.length + " != " + dimension);
+            }
+            for (float x : VectorUtils.normalize(v)) {
+                buf.putFloat(x);
+            }
+        }
+        buf.flip();
+        try (FileChannel ch = FileChannel.open(vecTmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) ch.write(buf);
+            ch.force(true);
+        }
+        Files.write(idsTmp, chunkIds, StandardCharsets.UTF_8);
+
+        // ids先落盘，.vec出现即代表段完整
+        Files.move(idsTmp, idsFile(dir, fileId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(vecTmp, vectorFile(dir, fileId), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * 在已有段文件末尾追加。先追加ids，再写向量，最后更新头部的行数，
+     * 中途中断时ids与行数不一致，open 会失败，由调用方从数据库重建。
+     * mapped 为当前映射的该段（只能是最新的段），返回追加后的段；mapped 为空或与文件不一致时返回null，由调用方重新 open
+     */
+    public static VectorSegment append(Path dir, String fileId, List<String> chunkIds, List<float[]> vectors,
+                                       VectorSegment mapped) throws IOException {
+        if (chunkIds.size() != vectors.size() || vectors.isEmpty()) {
+            throw new IllegalArgumentException("分块与向量数量不一致");
+        }
+        Path vec = vectorFile(dir, fileId);
+        int dimension;
+        int count;
+        try (FileChannel ch = FileChannel.open(vec, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer header = readHeader(ch, vec);
+            dimension = header.getInt(8);
+            count = header.getInt(12);
+
+            StringBuilder lines = new StringBuilder();
+            for (String id : chunkIds) {
+                lines.append(id).append('\n');
+            }
+            try (FileChannel ids = FileChannel.open(idsFile(dir, fileId), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+                ByteBuffer b = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+                while (b.hasRemaining()) ids.write(b);
+                ids.force(true);
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(vectors.size() * dimension * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (float[] v : vectors) {
+                if (v.length != dimension) {
+                    throw new IllegalArgumentException("向量维度不一致: " + v.length + " != " + dimension);
+                }
+                for (float x : VectorUtils.normalize(v)) {
+                    buf.putFloat(x);
+                }
+            }
+            buf.flip();
+            long position = HEADER_BYTES + (long) count * dimension * Float.BYTES;
+            while (buf.hasRemaining()) {
+                position += ch.write(buf, position);
+            }
+            ch.force(true);
+
+            ByteBuffer newCount = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN)
+                    .putInt(0, count + vectors.size());
+            while (newCount.hasRemaining()) ch.write(newCount, 12 + newCount.position());
+            ch.force(true);
+        }
+        if (mapped == null || mapped.count != count || mapped.dimension != dimension) {
+            return null;
+        }
+        int total = count + chunkIds.size();
+        String[] ids = mapped.chunkIds;
+        if (ids.length < total) {
+            // 容量不足时扩容；旧段继续使用原数组
+            ids = Arrays.copyOf(ids, Math.max(total, ids.length * 2));
+        }
+        for (int i = 0; i < chunkIds.size(); i++) {
+            ids[count + i] = chunkIds.get(i);
+        }
+        return new VectorSegment(fileId, ids, dimension, total, map(vec, dimension, total));
+    }
+
+    public static VectorSegment open(Path dir, String fileId) throws IOException {
+        Path vec = vectorFile(dir, fileId);
+        int dimension;
+        int count;
+        try (FileChannel ch = FileChannel.open(vec, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(ch, vec);
+            dimension = header.getInt(8);
+            count = header.getInt(12);
+        }
+        String[] ids = Files.readAllLines(idsFile(dir, fileId), StandardCharsets.UTF_8).toArray(new String[0]);
+        if (ids.length != count) {
+            throw new IOException("向量段与ids行数不一致: " + vec);
+        }
+        return new VectorSegment(fileId, ids, dimension, count, map(vec, dimension, count));
+    }
+
+    private static ByteBuffer readHeader(FileChannel ch, Path vec) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (ch.read(header, header.position()) < 0) {
+                throw new IOException("向量段文件不完整: " + vec);
+            }
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("无法识别的向量段文件: " + vec);
+        }
+        return header;
+    }
+
+    private static FloatBuffer map(Path vec, int dimension, int count) throws IOException {
+        long size = HEADER_BYTES + (long) count * dimension * Float.BYTES;
+        MappedByteBuffer mapped;
+        try (FileChannel ch = FileChannel.open(vec, StandardOpenOption.READ)) {
+            if (ch.size() < size) {
+                throw new IOException("向量段文件不完整: " + vec);
+            }
+            mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped.position(HEADER_BYTES).slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+    }
+
+    /**
+     * 精确扫描：逐行计算与单位化查询向量的内积。scratch长度需不小于维度，由调用方按线程复用
+     */
+    public void scan(float[] query, float[] scratch, TopK<String> topK) {
+        if (query.length != dimension) {
+            throw new IllegalArgumentException("查询向量维度不一致: " + query.length + " != " + dimension);
+        }
+        for (int row = 0; row < count; row++) {
+            data.get(row * dimension, scratch, 0, dimension);
+            float score = VectorOps.dot(query, scratch, dimension);
+            topK.offer(score, chunkIds[row]);
+        }
+    }
+
+    public boolean contains(String chunkId) {
+        for (int row = 0; row < count; row++) {
+            if (chunkIds[row].equals(chunkId)) return true;
+        }
+        return false;
+    }
+
+    public String chunkId(int row) {
+        return chunkIds[row];
+    }
+
+    /**
+     * 第row行的向量（已单位化）
+     */
+    public float[] vector(int row) {
+        float[] v = new float[dimension];
+        data.get(row * dimension, v, 0, dimension);
+        return v;
+    }
+
+    public String getFileId() {
+        return fileId;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getDimension() {
+        return dimension;
+    }
+}
@@ -0,0 +1,13 @@
+-- pgvector 检索后端（需安装 pgvector 扩展，docker-compose 已使用 pgvector/pgvector 镜像）
+CREATE EXTENSION IF NOT EXISTS vector;
+
+-- 与 embedding(JSONB) 并存；由 app.rag.pgvector.dual-write 或 search-backend=pgvector 时写入，
+-- 存量数据由 app.rag.pgvector.migrate-on-startup 在线分批回填
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS embedding_vec vector(1536);
+
+CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding_vec
+    ON document_chunks USING hnsw (embedding_vec vector_cosine_ops) WITH (m = 16, ef_construction = 64);
+
+-- 若更偏好 IVFFlat（构建更快、内存更小，需在数据量稳定后建立）：
+-- CREATE INDEX IF NOT EXISTS idx_document_chunks_embedding_vec_ivf
+--     ON document_chunks USING ivfflat (embedding_vec vector_cosine_ops) WITH (lists = 100);
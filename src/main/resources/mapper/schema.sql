@@ -23,4 +23,98 @@ CREATE TABLE IF NOT EXISTS document_chunks (
 );
 
 CREATE INDEX IF NOT EXISTS idx_document_chunks_user ON document_chunks(user_id);
-CREATE INDEX IF NOT EXISTS idx_document_chunks_file ON document_chunks(file_id); 
\ No newline at end of file
+CREATE INDEX IF NOT EXISTS idx_document_chunks_file ON document_chunks(file_id);
+
+-- 向量的二进制存储（float32/float16，见 FloatArrayCodec），替代 embedding(JSONB)；
+-- 存量数据由 app.rag.storage.migrate-on-startup 分批转换
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS embedding_bin BYTEA;
+
+-- 混合检索的词法通道：词位由应用侧切分（LexicalTokenizer），按字面写入
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS content_tsv tsvector;
+CREATE INDEX IF NOT EXISTS idx_document_chunks_content_tsv ON document_chunks USING gin (content_tsv);
+
+-- 分块内容的 SHA-256，文件替换时按它比对新旧分块，只embedding/写入变化的部分；
+-- 旧数据为空时在比对查询中现场计算
+ALTER TABLE document_chunks ADD COLUMN IF NOT EXISTS content_hash CHAR(64);
+
+-- 分块向量缓存：按内容寻址，不同用户/重复上传的相同分块复用向量
+CREATE TABLE IF NOT EXISTS embedding_cache (
+    content_hash CHAR(64) PRIMARY KEY,
+    model VARCHAR(128) NOT NULL,
+    embedding JSONB NOT NULL,
+    created_at TIMESTAMP
+);
+
+-- 缓存向量同样以二进制存储（格式同 document_chunks.embedding_bin），新条目只写 embedding_bin；
+-- 已有的 JSONB 条目读取时仍可解析
+ALTER TABLE embedding_cache ADD COLUMN IF NOT EXISTS embedding_bin BYTEA;
+ALTER TABLE embedding_cache ALTER COLUMN embedding DROP NOT NULL;
+
+-- 索引任务队列：各节点以 FOR UPDATE SKIP LOCKED 领取，租约过期后重新排队
+CREATE TABLE IF NOT EXISTS index_jobs (
+    id VARCHAR(64) PRIMARY KEY,
+    file_id VARCHAR(64) NOT NULL,
+    status VARCHAR(16) NOT NULL,
+    attempts INT NOT NULL DEFAULT 0,
+    next_run_at TIMESTAMP NOT NULL,
+    lease_owner VARCHAR(128),
+    lease_expires_at TIMESTAMP,
+    last_error TEXT,
+    created_at TIMESTAMP,
+    CONSTRAINT fk_index_job_file FOREIGN KEY (file_id) REFERENCES uploaded_files (id) ON DELETE CASCADE
+);
+
+CREATE INDEX IF NOT EXISTS idx_index_jobs_ready ON index_jobs(status, next_run_at);
+CREATE INDEX IF NOT EXISTS idx_index_jobs_file ON index_jobs(file_id);
+
+-- 每个文件最多一个待执行任务、一个执行中任务：并发替换只排队一次，同一文件不会被两个worker同时索引。
+-- 执行中时再次替换仍可排队一个待执行任务，保证最新内容会被重新索引。建索引前清理旧版本可能留下的重复任务
+DELETE FROM index_jobs j
+WHERE j.status IN ('PENDING', 'RUNNING')
+  AND EXISTS (
+    SELECT 1 FROM index_jobs n
+    WHERE n.file_id = j.file_id AND n.status = j.status
+      AND (n.created_at, n.id) > (j.created_at, j.id)
+  );
+CREATE UNIQUE INDEX IF NOT EXISTS uk_index_jobs_pending_file ON index_jobs(file_id) WHERE status = 'PENDING';
+CREATE UNIQUE INDEX IF NOT EXISTS uk_index_jobs_running_file ON index_jobs(file_id) WHERE status = 'RUNNING';
+
+-- 文件列表按 (upload_time, id) 倒序的游标分页，偏移分页同样按此顺序走索引
+CREATE INDEX IF NOT EXISTS idx_uploaded_files_user_time ON uploaded_files(user_id, upload_time DESC, id DESC);
+
+-- 游标由 (upload_time, id) 组成，upload_time 不能为空；历史空值在倒序中排在最前，回填为当前时间保持原有顺序
+UPDATE uploaded_files SET upload_time = CURRENT_TIMESTAMP WHERE upload_time IS NULL;
+ALTER TABLE uploaded_files ALTER COLUMN upload_time SET DEFAULT CURRENT_TIMESTAMP;
+ALTER TABLE uploaded_files ALTER COLUMN upload_time SET NOT NULL;
+
+-- 每个用户的文件数，随文件的新增/删除在同一事务内增减，文件列表的总数不再 COUNT(*)
+CREATE TABLE IF NOT EXISTS user_file_stats (
+    user_id VARCHAR(64) PRIMARY KEY,
+    file_count BIGINT NOT NULL DEFAULT 0
+);
+
+INSERT INTO user_file_stats (user_id, file_count)
+SELECT user_id, COUNT(*) FROM uploaded_files GROUP BY user_id
+ON CONFLICT (user_id) DO NOTHING;
+
+-- 服务端会话：客户端每轮只发送新消息与会话ID，历史由服务端按窗口读取
+CREATE TABLE IF NOT EXISTS conversations (
+    id VARCHAR(64) PRIMARY KEY,
+    user_id VARCHAR(64) NOT NULL,
+    created_at TIMESTAMP,
+    updated_at TIMESTAMP
+);
+
+CREATE INDEX IF NOT EXISTS idx_conversations_user ON conversations(user_id, updated_at DESC);
+
+CREATE TABLE IF NOT EXISTS conversation_messages (
+    id BIGSERIAL PRIMARY KEY,
+    conversation_id VARCHAR(64) NOT NULL,
+    role VARCHAR(16) NOT NULL,
+    content TEXT NOT NULL,
+    created_at TIMESTAMP NOT NULL,
+    CONSTRAINT fk_conversation_message FOREIGN KEY (conversation_id) REFERENCES conversations (id) ON DELETE CASCADE
+);
+
+-- 消息异步批量写入，插入顺序不一定等于发生顺序，按 created_at 排序（同一时刻按 id）
+CREATE INDEX IF NOT EXISTS idx_conversation_messages_conv_time ON conversation_messages(conversation_id, created_at DESC, id DESC);
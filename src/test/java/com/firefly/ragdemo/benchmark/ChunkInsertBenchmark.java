@@ -0,0 +1,136 @@
+package com.firefly.ragdemo.benchmark;
+
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.service.impl.DocumentChunkCopyWriter;
+import com.firefly.ragdemo.util.CacheKeys;
+import com.firefly.ragdemo.util.FloatArrayCodec;
+import com.firefly.ragdemo.util.LexicalTokenizer;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.Savepoint;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * document_chunks 写入吞吐对比：MyBatis insertBatch 生成的多行 INSERT（每条500行）与 DocumentChunkCopyWriter 的二进制 COPY。
+ * 需要已执行 schema.sql 的 PostgreSQL，所有写入在一个事务内完成并最终回滚，不留数据。
+ * 运行：mvn test-compile 后以测试classpath执行本类的 main，参数通过系统属性传入：
+ * -Dbench.url=jdbc:postgresql://localhost:5432/ragdemo -Dbench.user=postgres -Dbench.password=...
+ * -Dbench.rows=20000 -Dbench.dim=1536 -Dbench.rounds=3 -Dbench.lexemes=true
+ */
+public class ChunkInsertBenchmark {
+
+    private static final int INSERT_BATCH = 500;
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("bench.url", "jdbc:postgresql://localhost:5432/ragdemo");
+        String user = System.getProperty("bench.user", "postgres");
+        String password = System.getProperty("bench.password", "");
+        int rows = Integer.getInteger("bench.rows", 20_000);
+        int dim = Integer.getInteger("bench.dim", 1536);
+        int rounds = Integer.getInteger("bench.rounds", 3);
+        boolean lexemes = Boolean.parseBoolean(System.getProperty("bench.lexemes", "true"));
+
+        try (Connection conn = DriverManager.getConnection(url, user, password)) {
+            conn.setAutoCommit(false);
+            String fileId = UUID.randomUUID().toString();
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "INSERT INTO uploaded_files (id, user_id, filename, file_path, status) VALUES (?, 'bench', 'bench.txt', '-', 'COMPLETED')")) {
+                ps.setString(1, fileId);
+                ps.executeUpdate();
+            }
+            List<DocumentChunk> chunks = generate(fileId, rows, dim);
+            System.out.printf("行数=%d, 维度=%d, 写入词位=%s%n", rows, dim, lexemes);
+            for (int round = 1; round <= rounds; round++) {
+                double insertRate = measure(conn, () -> multiRowInsert(conn, chunks, lexemes), rows);
+                double copyRate = measure(conn, () -> DocumentChunkCopyWriter.copy(conn, chunks, false, false, false, lexemes, 5000), rows);
+                System.out.printf("第%d轮: 多行INSERT %.0f 行/秒, COPY %.0f 行/秒 (%.1fx)%n",
+                        round, insertRate, copyRate, copyRate / insertRate);
+            }
+            conn.rollback();
+        }
+    }
+
+    private interface Write {
+        int run() throws Exception;
+    }
+
+    /**
+     * 每轮写入后回滚到保存点，保证各次写入时表的状态相同
+     */
+    private static double measure(Connection conn, Write write, int rows) throws Exception {
+        Savepoint sp = conn.setSavepoint();
+        long start = System.nanoTime();
+        int written = write.run();
+        long elapsed = System.nanoTime() - start;
+        conn.rollback(sp);
+        if (written != rows) throw new IllegalStateException("写入行数不符: " + written + " != " + rows);
+        return rows / (elapsed / 1e9);
+    }
+
+    /**
+     * 与 DocumentChunkMapper.insertBatch（write-json/pgvector 关闭时）相同的SQL
+     */
+    private static int multiRowInsert(Connection conn, List<DocumentChunk> chunks, boolean lexemes) throws Exception {
+        int total = 0;
+        for (int from = 0; from < chunks.size(); from += INSERT_BATCH) {
+            List<DocumentChunk> batch = chunks.subList(from, Math.min(chunks.size(), from + INSERT_BATCH));
+            StringBuilder sql = new StringBuilder("INSERT INTO document_chunks (id, user_id, file_id, chunk_index, content, content_hash, embedding_bin, ")
+                    .append(lexemes ? "content_tsv, " : "").append("created_at) VALUES ");
+            for (int i = 0; i < batch.size(); i++) {
+                if (i > 0) sql.append(',');
+                sql.append(lexemes ? "(?, ?, ?, ?, ?, ?, ?, array_to_tsvector(string_to_array(?, ' ')), ?)" : "(?, ?, ?, ?, ?, ?, ?, ?)");
+            }
+            try (PreparedStatement ps = conn.prepareStatement(sql.toString())) {
+                int p = 1;
+                for (DocumentChunk c : batch) {
+                    ps.setString(p++, c.getId());
+                    ps.setString(p++, c.getUserId());
+                    ps.setString(p++, c.getFileId());
+                    ps.setInt(p++, c.getChunkIndex());
+                    ps.setString(p++, c.getContent());
+                    ps.setString(p++, c.getContentHash());
+                    ps.setBytes(p++, FloatArrayCodec.encode(c.getEmbedding(), false));
+                    if (lexemes) ps.setString(p++, c.getLexemes());
+                    ps.setTimestamp(p++, Timestamp.valueOf(c.getCreatedAt()));
+                }
+                total += ps.executeUpdate();
+            }
+        }
+        return total;
+    }
+
+    private static List<DocumentChunk> generate(String fileId, int rows, int dim) {
+        Random random = new Random(1);
+        String[] words = {"课程", "讲义", "向量", "检索", "索引", "模型", "数据", "算法", "lecture", "vector", "index", "chapter"};
+        List<DocumentChunk> chunks = new ArrayList<>(rows);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < rows; i++) {
+            StringBuilder text = new StringBuilder(800);
+            while (text.length() < 780) {
+                text.append(words[random.nextInt(words.length)]).append(' ');
+            }
+            float[] vec = new float[dim];
+            for (int d = 0; d < dim; d++) vec[d] = (float) random.nextGaussian();
+            String content = text.toString();
+            chunks.add(DocumentChunk.builder()
+                    .id(UUID.randomUUID().toString())
+                    .userId("bench")
+                    .fileId(fileId)
+                    .chunkIndex(i)
+                    .content(content)
+                    .contentHash(CacheKeys.contentHash(content))
+                    .embedding(vec)
+                    .lexemes(LexicalTokenizer.toLexemes(content))
+                    .createdAt(now)
+                    .build());
+        }
+        return chunks;
+    }
+}
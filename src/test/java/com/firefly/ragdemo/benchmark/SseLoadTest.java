@@ -0,0 +1,198 @@
+package com.firefly.ragdemo.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 单节点可同时保持的流式对话数：按梯度同时发起N个 stream=true 的 /ask，统计同时处于打开状态的流的峰值、
+ * 正常结束（收到 done）的流数与首个事件的延迟。分别以两种模式启动被测节点后各运行一次进行对比：
+ * 平台线程（默认，Java 17）与虚拟线程（mvn -Pjava21 构建，Java 21 运行，spring.threads.virtual.enabled=true）。
+ * 客户端以异步订阅读取响应，本身不为每个流占用线程。
+ * 运行：mvn test-compile 后以测试classpath执行本类的 main，参数通过系统属性传入：
+ * -Dload.url=http://localhost:8000 -Dload.username=... -Dload.password=...（或 -Dload.token=...）
+ * -Dload.levels=100,500,1000,2000 -Dload.timeoutSeconds=60 -Dload.question=...
+ */
+public class SseLoadTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    public static void main(String[] args) throws Exception {
+        String url = System.getProperty("load.url", "http://localhost:8000");
+        String question = System.getProperty("load.question", "请简要介绍课程的主要内容");
+        long timeoutSeconds = Long.getLong("load.timeoutSeconds", 60);
+        List<Integer> levels = new ArrayList<>();
+        for (String s : System.getProperty("load.levels", "100,500,1000,2000").split(",")) {
+            levels.add(Integer.parseInt(s.trim()));
+        }
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+        String token = System.getProperty("load.token");
+        if (token == null) {
+            token = login(client, url, System.getProperty("load.username"), System.getProperty("load.password"));
+        }
+
+        String body = MAPPER.writeValueAsString(MAPPER.createObjectNode()
+                .put("model", "gpt-4o-mini")
+                .put("stream", true)
+                .set("messages", MAPPER.createArrayNode().add(MAPPER.createObjectNode()
+                        .put("role", "user")
+                        .put("content", question))));
+
+        for (int n : levels) {
+            Result r = runLevel(client, url, token, body, n, timeoutSeconds);
+            System.out.printf("并发=%d: 同时打开峰值=%d, 正常结束=%d, 失败=%d, 超时=%d, 首事件延迟 p50=%dms p95=%dms, 总耗时=%dms%n",
+                    n, r.peakOpen, r.completed, r.failed, r.timedOut, r.percentile(50), r.percentile(95), r.elapsedMs);
+        }
+    }
+
+    private static String login(HttpClient client, String url, String username, String password) throws Exception {
+        if (username == null || password == null) {
+            throw new IllegalArgumentException("需要 -Dload.token 或 -Dload.username/-Dload.password");
+        }
+        String json = MAPPER.writeValueAsString(MAPPER.createObjectNode()
+                .put("username", username)
+                .put("password", password));
+        HttpResponse<String> resp = client.send(HttpRequest.newBuilder(URI.create(url + "/auth/login"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(json))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        JsonNode token = MAPPER.readTree(resp.body()).path("data").path("token");
+        if (token.isMissingNode() || token.asText().isEmpty()) {
+            throw new IllegalStateException("登录失败: " + resp.body());
+        }
+        return token.asText();
+    }
+
+    private static Result runLevel(HttpClient client, String url, String token, String body,
+                                   int n, long timeoutSeconds) throws Exception {
+        Result r = new Result();
+        AtomicInteger open = new AtomicInteger();
+        AtomicInteger peak = new AtomicInteger();
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        List<Long> firstEvent = Collections.synchronizedList(new ArrayList<>());
+        List<CompletableFuture<?>> streams = new ArrayList<>(n);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < n; i++) {
+            long sent = System.nanoTime();
+            StreamSubscriber subscriber = new StreamSubscriber(open, peak, completed, firstEvent, sent);
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url + "/ask"))
+                    .timeout(Duration.ofSeconds(timeoutSeconds))
+                    .header("Content-Type", "application/json")
+                    .header("Accept", "text/event-stream")
+                    .header("Authorization", "Bearer " + token)
+                    .POST(HttpRequest.BodyPublishers.ofString(body))
+                    .build();
+            streams.add(client.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(subscriber))
+                    .whenComplete((resp, e) -> {
+                        if (e != null || resp.statusCode() != 200) failed.incrementAndGet();
+                    }));
+        }
+        try {
+            CompletableFuture.allOf(streams.toArray(new CompletableFuture[0]))
+                    .get(timeoutSeconds + 10, TimeUnit.SECONDS);
+        } catch (Exception ignored) {
+            // 单个流的失败已计入 failed，整体超时的流计入 timedOut
+        }
+        r.elapsedMs = (System.nanoTime() - start) / 1_000_000;
+        r.peakOpen = peak.get();
+        r.completed = completed.get();
+        r.failed = failed.get();
+        r.timedOut = (int) streams.stream().filter(f -> !f.isDone()).count();
+        streams.forEach(f -> f.cancel(true));
+        synchronized (firstEvent) {
+            r.firstEventMs = new ArrayList<>(firstEvent);
+        }
+        Collections.sort(r.firstEventMs);
+        return r;
+    }
+
+    /**
+     * 按行读取SSE：首个 data 行记为首事件，收到 done 记为正常结束
+     */
+    private static final class StreamSubscriber implements Flow.Subscriber<String> {
+        private final AtomicInteger open;
+        private final AtomicInteger peak;
+        private final AtomicInteger completed;
+        private final List<Long> firstEvent;
+        private final long sent;
+        private boolean opened;
+        private boolean done;
+
+        StreamSubscriber(AtomicInteger open, AtomicInteger peak, AtomicInteger completed, List<Long> firstEvent, long sent) {
+            this.open = open;
+            this.peak = peak;
+            this.completed = completed;
+            this.firstEvent = firstEvent;
+            this.sent = sent;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(String line) {
+            if (!line.startsWith("data:")) return;
+            if (!opened) {
+                opened = true;
+                firstEvent.add((System.nanoTime() - sent) / 1_000_000);
+                peak.accumulateAndGet(open.incrementAndGet(), Math::max);
+            }
+            if (!done && line.contains("\"done\":true")) {
+                done = true;
+                completed.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            close();
+        }
+
+        @Override
+        public void onComplete() {
+            close();
+        }
+
+        private void close() {
+            if (opened) {
+                opened = false;
+                open.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class Result {
+        int peakOpen;
+        int completed;
+        int failed;
+        int timedOut;
+        long elapsedMs;
+        List<Long> firstEventMs = List.of();
+
+        long percentile(int p) {
+            if (firstEventMs.isEmpty()) return -1;
+            int idx = (int) Math.ceil(p / 100.0 * firstEventMs.size()) - 1;
+            return firstEventMs.get(Math.max(0, idx));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.firefly.ragdemo.benchmark;
+
+import com.firefly.ragdemo.service.impl.ScanningTextChunker;
+import com.firefly.ragdemo.service.impl.SimpleTextChunker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SimpleTextChunker 与 ScanningTextChunker 在10MB文本上的耗时与分配对比。
+ * 运行：mvn test-compile 后以测试classpath执行本类的 main（附带 -prof gc 可查看每次调用的分配字节数）。
+ * scanningViews 只生成分块视图，对应比对时未变化、无需写库的分块；scanning 与 simple 一样生成全部字符串。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xms2g", "-Xmx2g"})
+public class TextChunkerBenchmark {
+
+    @Param({"10485760"})
+    private int size;
+
+    private final SimpleTextChunker simple = new SimpleTextChunker();
+    private final ScanningTextChunker scanning = new ScanningTextChunker();
+    private String text;
+
+    @Setup
+    public void setUp() {
+        // 类似讲义的文本：短段落为主，夹杂超长段落与 Windows 换行
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder(size + 4096);
+        while (sb.length() < size) {
+            int len = random.nextInt(20) == 0 ? 1000 + random.nextInt(3000) : 50 + random.nextInt(400);
+            for (int i = 0; i < len; i++) {
+                sb.append(random.nextInt(8) == 0 ? ' ' : (char) ('a' + random.nextInt(26)));
+            }
+            int sep = random.nextInt(10);
+            sb.append(sep < 6 ? "\n\n" : sep < 8 ? "\n" : sep < 9 ? "\r\n\r\n" : "\n\n\n");
+        }
+        text = sb.toString();
+        List<String> expected = simple.split(text);
+        if (!expected.equals(scanning.split(text))) {
+            throw new IllegalStateException("两种实现的分块结果不一致");
+        }
+    }
+
+    @Benchmark
+    public List<String> simple() {
+        return simple.split(text);
+    }
+
+    @Benchmark
+    public List<String> scanning() {
+        return scanning.split(text);
+    }
+
+    @Benchmark
+    public void scanningViews(Blackhole bh) {
+        for (ScanningTextChunker.Span span : scanning.chunk(text)) {
+            bh.consume(span.length());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TextChunkerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,180 @@
+package com.firefly.ragdemo.mapper;
+
+import com.firefly.ragdemo.entity.DocumentChunk;
+import com.firefly.ragdemo.mapper.typehandler.FloatArrayTypeHandler;
+import com.firefly.ragdemo.util.VectorUtils;
+import io.zonky.test.db.postgres.embedded.EmbeddedPostgres;
+import org.apache.ibatis.builder.xml.XMLMapperBuilder;
+import org.apache.ibatis.mapping.Environment;
+import org.apache.ibatis.session.Configuration;
+import org.apache.ibatis.session.SqlSessionFactoryBuilder;
+import org.apache.ibatis.session.SqlSessionManager;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * 在嵌入式PostgreSQL上执行 DocumentChunkMapper.xml 中的SQL。
+ * 嵌入式实例没有pgvector扩展，embedding_vec 相关的用例在扩展不可用时跳过
+ */
+class DocumentChunkMapperTest {
+
+    private static EmbeddedPostgres pg;
+    private static Configuration configuration;
+    private static DocumentChunkMapper mapper;
+    private static boolean pgvector;
+
+    @BeforeAll
+    static void setUp() throws Exception {
+        pg = EmbeddedPostgres.builder().start();
+        try (Connection c = pg.getPostgresDatabase().getConnection(); Statement st = c.createStatement()) {
+            runScript(st, "mapper/schema.sql");
+            try {
+                st.execute("CREATE EXTENSION IF NOT EXISTS vector");
+                runScript(st, "mapper/schema-pgvector.sql");
+                pgvector = true;
+            } catch (SQLException e) {
+                pgvector = false;
+            }
+        }
+        configuration = new Configuration(new Environment("test", new JdbcTransactionFactory(), pg.getPostgresDatabase()));
+        configuration.setMapUnderscoreToCamelCase(true);
+        configuration.getTypeAliasRegistry().registerAliases("com.firefly.ragdemo.entity");
+        configuration.getTypeHandlerRegistry().register(float[].class, new FloatArrayTypeHandler(false));
+        try (InputStream in = resource("mapper/DocumentChunkMapper.xml")) {
+            new XMLMapperBuilder(in, configuration, "DocumentChunkMapper.xml", configuration.getSqlFragments()).parse();
+        }
+        mapper = SqlSessionManager.newInstance(new SqlSessionFactoryBuilder().build(configuration))
+                .getMapper(DocumentChunkMapper.class);
+    }
+
+    @AfterAll
+    static void tearDown() throws Exception {
+        if (pg != null) {
+            pg.close();
+        }
+    }
+
+    @BeforeEach
+    void resetRows() throws SQLException {
+        try (Connection c = pg.getPostgresDatabase().getConnection(); Statement st = c.createStatement()) {
+            st.execute("DELETE FROM uploaded_files");
+            st.execute("INSERT INTO uploaded_files (id, user_id, filename, file_path) VALUES ('f1', 'u1', 'a.txt', '/tmp/a.txt')");
+            for (int i = 0; i < 3; i++) {
+                st.execute("INSERT INTO document_chunks (id, user_id, file_id, chunk_index, content, embedding) VALUES ('c" + i
+                        + "', 'u1', 'f1', " + i + ", 'text', '[" + i + ".5, -1.25, 2]'::jsonb)");
+            }
+        }
+    }
+
+    @Test
+    void everyMapperMethodHasStatement() {
+        for (Method m : DocumentChunkMapper.class.getDeclaredMethods()) {
+            String id = DocumentChunkMapper.class.getName() + "." + m.getName();
+            assertTrue(configuration.hasStatement(id), "缺少SQL语句: " + id);
+        }
+    }
+
+    @Test
+    void migratesJsonToBinaryInBatches() {
+        List<DocumentChunk> first = mapper.findChunksWithoutBinary(2);
+        assertEquals(2, first.size());
+        for (DocumentChunk c : first) {
+            assertNotNull(c.getEmbeddingJson());
+            c.setEmbedding(VectorUtils.parseJsonArray(c.getEmbeddingJson()));
+        }
+        assertEquals(2, mapper.updateEmbeddingBinBatch(first, true));
+
+        List<DocumentChunk> rest = mapper.findChunksWithoutBinary(10);
+        assertEquals(1, rest.size());
+        rest.get(0).setEmbedding(VectorUtils.parseJsonArray(rest.get(0).getEmbeddingJson()));
+        assertEquals(1, mapper.updateEmbeddingBinBatch(rest, false));
+        assertTrue(mapper.findChunksWithoutBinary(10).isEmpty());
+
+        for (DocumentChunk c : mapper.findVectorsByFile("f1")) {
+            int i = Integer.parseInt(c.getId().substring(1));
+            assertArrayEquals(new float[]{i + 0.5f, -1.25f, 2f}, c.getEmbedding());
+            // 只有未迁移的行才会取 JSONB
+            assertNull(c.getEmbeddingJson());
+        }
+        assertEquals(1, countWhere("embedding IS NOT NULL"));
+    }
+
+    @Test
+    void scansUserVectorsUpToLimit() {
+        List<DocumentChunk> rows = new ArrayList<>();
+        mapper.scanVectorsByUser("u1", 2, ctx -> rows.add(ctx.getResultObject()));
+        assertEquals(2, rows.size());
+        for (DocumentChunk c : rows) {
+            // 未迁移的行通过 JSONB 取得向量
+            assertNotNull(VectorUtils.vectorOf(c));
+        }
+    }
+
+    @Test
+    void backfillsVectorColumnFromBinary() throws SQLException {
+        assumeTrue(pgvector, "嵌入式PostgreSQL没有pgvector扩展");
+        try (Connection c = pg.getPostgresDatabase().getConnection(); Statement st = c.createStatement()) {
+            st.execute("ALTER TABLE document_chunks ALTER COLUMN embedding_vec TYPE vector(3)");
+        }
+        List<DocumentChunk> rows = mapper.findChunksWithoutBinary(10);
+        rows.forEach(c -> c.setEmbedding(VectorUtils.parseJsonArray(c.getEmbeddingJson())));
+        mapper.updateEmbeddingBinBatch(rows, true);
+
+        List<DocumentChunk> pending = mapper.findChunksWithoutVectorColumn(10);
+        assertEquals(3, pending.size());
+        pending.forEach(c -> c.setEmbeddingJson(VectorUtils.toJsonArray(c.getEmbedding())));
+        assertEquals(3, mapper.updateVectorColumnBatch(pending));
+        assertTrue(mapper.findChunksWithoutVectorColumn(10).isEmpty());
+        assertEquals(0, countWhere("embedding_vec IS NULL"));
+    }
+
+    private static long countWhere(String condition) {
+        try (Connection c = pg.getPostgresDatabase().getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM document_chunks WHERE " + condition)) {
+            rs.next();
+            return rs.getLong(1);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void runScript(Statement st, String path) throws Exception {
+        String sql;
+        try (InputStream in = resource(path)) {
+            sql = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+        for (String stmt : sql.split(";\\s*\\n")) {
+            if (!stmt.replaceAll("(?m)^\\s*--.*$", "").isBlank()) {
+                st.execute(stmt);
+            }
+        }
+    }
+
+    private static InputStream resource(String path) {
+        InputStream in = DocumentChunkMapperTest.class.getClassLoader().getResourceAsStream(path);
+        if (in == null) {
+            throw new IllegalStateException("找不到资源: " + path);
+        }
+        return in;
+    }
+}
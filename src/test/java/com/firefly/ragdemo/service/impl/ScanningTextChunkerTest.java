@@ -0,0 +1,74 @@
+package com.firefly.ragdemo.service.impl;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ScanningTextChunkerTest {
+
+    private final SimpleTextChunker simple = new SimpleTextChunker();
+    private final ScanningTextChunker scanning = new ScanningTextChunker();
+
+    @Test
+    void matchesSimpleChunkerOnEdgeCases() {
+        String longPara = "x".repeat(2500);
+        String[] inputs = {
+                null, "", "   ", "\n\n", "a", "a\n", "\na", "\n\na", "a\n\n", "a\n\n\n\nb", "a\nb\n\nc",
+                "a\r\nb\r\n\r\nc", "a\rb\r\rc", "a\n\rb", "\r\n\r\n" + longPara + "\r\n",
+                "x".repeat(799), "x".repeat(800), "x".repeat(801), "x".repeat(1500) + "\n\n" + "y".repeat(10),
+                "y".repeat(400) + "\n\n" + "z".repeat(399) + "\n\n" + "w".repeat(5),
+                "y".repeat(400) + "\n\n" + "z".repeat(400) + "\n\n" + longPara,
+                longPara.substring(0, 900) + "\r\n" + longPara.substring(0, 900) + "\r\n\r\nend",
+                "  \n\n  \n\n" + "text", "\t\n\n\t",
+        };
+        for (String input : inputs) {
+            assertEquals(simple.split(input), scanning.split(input), () -> "input: " + describe(input));
+        }
+    }
+
+    @Test
+    void matchesSimpleChunkerOnRandomText() {
+        Random random = new Random(42);
+        String[] pieces = {"\n", "\n\n", "\n\n\n", "\r\n", "\r\n\r\n", "\r", " ", "  \n\n", "课程", "。"};
+        for (int round = 0; round < 2000; round++) {
+            StringBuilder sb = new StringBuilder();
+            int parts = random.nextInt(40);
+            for (int i = 0; i < parts; i++) {
+                if (random.nextInt(3) == 0) {
+                    sb.append(pieces[random.nextInt(pieces.length)]);
+                } else {
+                    int len = random.nextInt(10) == 0 ? 600 + random.nextInt(1200) : random.nextInt(300);
+                    for (int j = 0; j < len; j++) {
+                        sb.append((char) ('a' + random.nextInt(26)));
+                    }
+                }
+            }
+            String input = sb.toString();
+            assertEquals(simple.split(input), scanning.split(input), () -> "input: " + describe(input));
+        }
+    }
+
+    @Test
+    void spansExposeSameCharacters() {
+        String input = "第一段\r\n第二行\n\n" + "长".repeat(1000) + "\n\n尾";
+        List<ScanningTextChunker.Span> spans = scanning.chunk(new StringBuilder(input));
+        List<String> expected = simple.split(input);
+        assertEquals(expected.size(), spans.size());
+        for (int i = 0; i < spans.size(); i++) {
+            ScanningTextChunker.Span span = spans.get(i);
+            assertEquals(expected.get(i).length(), span.length());
+            StringBuilder chars = new StringBuilder();
+            for (int j = 0; j < span.length(); j++) chars.append(span.charAt(j));
+            assertEquals(expected.get(i), chars.toString());
+        }
+    }
+
+    private static String describe(String input) {
+        if (input == null) return "null";
+        String shown = input.length() > 200 ? input.substring(0, 200) + "...(" + input.length() + ")" : input;
+        return shown.replace("\r", "\\r").replace("\n", "\\n");
+    }
+}
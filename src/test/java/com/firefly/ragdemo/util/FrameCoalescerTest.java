@@ -0,0 +1,87 @@
+package com.firefly.ragdemo.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FrameCoalescerTest {
+
+    private static final String PREFIX = "{\"content\":\"";
+    private static final String SUFFIX = "\"}";
+
+    @Test
+    void escapesEveryJsonSpecialCharacter() throws Exception {
+        String raw = "a\"b\\c\nd\re\tf\bg\fh\u0000i\u001fj k l 中文 😀";
+        String json = JsonEscaper.append(new StringBuilder(PREFIX), raw).append(SUFFIX).toString();
+        assertEquals(raw, new ObjectMapper().readTree(json).get("content").asText());
+        assertTrue(json.contains("\\u0000") && json.contains("\\u2028"));
+    }
+
+    @Test
+    void flushesOnSizeThreshold() {
+        List<String> frames = FrameCoalescer.coalesce(Flux.just("aaa", "bbb", "ccc", "d"),
+                PREFIX, SUFFIX, 6, Duration.ofSeconds(10), Schedulers.parallel()).collectList().block();
+        assertEquals(List.of(PREFIX + "aaabbb" + SUFFIX, PREFIX + "cccd" + SUFFIX), frames);
+    }
+
+    @Test
+    void flushesOnTimeWindow() {
+        Flux<String> deltas = Flux.just("a", "b").concatWith(Flux.just("c").delayElements(Duration.ofMillis(300)));
+        List<String> frames = FrameCoalescer.coalesce(deltas, PREFIX, SUFFIX, 1024, Duration.ofMillis(50),
+                Schedulers.parallel()).collectList().block();
+        assertEquals(List.of(PREFIX + "ab" + SUFFIX, PREFIX + "c" + SUFFIX), frames);
+    }
+
+    @Test
+    void zeroWindowSendsEachDeltaWhenDownstreamKeepsUp() {
+        List<String> frames = FrameCoalescer.coalesce(Flux.just("a", "b", "c"), PREFIX, SUFFIX, 1024,
+                Duration.ZERO, Schedulers.parallel()).collectList().block();
+        assertEquals(3, frames.size());
+    }
+
+    @Test
+    void stopsRequestingUpstreamWhileFrameIsFullAndUnclaimed() throws Exception {
+        AtomicInteger requested = new AtomicInteger();
+        Flux<String> deltas = Flux.range(0, 100).map(i -> "xx").doOnRequest(n -> requested.addAndGet((int) n));
+        List<String> received = new CopyOnWriteArrayList<>();
+        BaseSubscriber<String> subscriber = new BaseSubscriber<>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                // 不请求
+            }
+
+            @Override
+            protected void hookOnNext(String value) {
+                received.add(value);
+            }
+        };
+        FrameCoalescer.coalesce(deltas, PREFIX, SUFFIX, 10, Duration.ZERO, Schedulers.parallel()).subscribe(subscriber);
+        assertEquals(5, requested.get());
+        assertTrue(received.isEmpty());
+
+        subscriber.request(1);
+        assertEquals(List.of(PREFIX + "xxxxxxxxxx" + SUFFIX), received);
+        assertEquals(10, requested.get());
+        subscriber.cancel();
+    }
+
+    @Test
+    void deliversBufferedContentBeforeError() {
+        Flux<String> deltas = Flux.just("a", "b").concatWith(Flux.error(new IllegalStateException("boom")));
+        List<String> frames = FrameCoalescer.coalesce(deltas, PREFIX, SUFFIX, 1024, Duration.ofSeconds(10), Schedulers.parallel())
+                .onErrorResume(e -> Flux.just("error:" + e.getMessage()))
+                .collectList().block();
+        assertEquals(List.of(PREFIX + "ab" + SUFFIX, "error:boom"), frames);
+    }
+}